@@ -1,10 +1,31 @@
 package com.example.passkit.controller;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import com.example.passkit.dto.PassRequest;
+import com.example.passkit.service.ApnsClient;
+import com.example.passkit.service.BatchPassService;
+import com.example.passkit.service.DeadTokenPruner;
+import com.example.passkit.service.DeviceLogSink;
+import com.example.passkit.service.PassArtifactCache;
+import com.example.passkit.service.PassAssetBundle;
+import com.example.passkit.service.PassAssetService;
 import com.example.passkit.service.PassGeneratorService;
+import com.example.passkit.service.PassNegativeCache;
+import com.example.passkit.service.PassRegistrationService;
+import com.example.passkit.service.PkpassArchive;
+import com.example.passkit.service.PushFanoutEngine;
+import com.example.passkit.service.PushFanoutPlanner;
+import com.example.passkit.service.PushOutboxDispatcher;
+import com.example.passkit.service.PushRetryScheduler;
+import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -21,23 +42,51 @@ public class PassController {
     @Autowired
     private PassGeneratorService passGeneratorService;
 
+    @Autowired
+    private PassAssetService passAssetService;
+
+    @Autowired
+    private PassArtifactCache passArtifactCache;
+
+    @Autowired
+    private BatchPassService batchPassService;
+
+    @Autowired
+    private PassNegativeCache passNegativeCache;
+
+    @Autowired
+    private PassRegistrationService passRegistrationService;
+
+    @Autowired
+    private DeviceLogSink deviceLogSink;
+
+    @Autowired
+    private PushOutboxDispatcher pushOutboxDispatcher;
+
+    @Autowired
+    private PushFanoutPlanner pushFanoutPlanner;
+
+    @Autowired
+    private PushFanoutEngine pushFanoutEngine;
+
+    @Autowired
+    private PushRetryScheduler pushRetryScheduler;
+
+    @Autowired
+    private DeadTokenPruner deadTokenPruner;
+
+    @Autowired
+    private ApnsClient apnsClient;
+
     @GetMapping("/generate")
     public ResponseEntity<?> generatePass() {
         try {
             PassGeneratorService.PassGenerationResult result = passGeneratorService.generatePass();
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.parseMediaType("application/vnd.apple.pkpass"));
-            headers.setContentDispositionFormData("attachment", "pass.pkpass");
-            headers.setContentLength(result.getData().length);
-            headers.add("X-Pass-Serial-Number", result.getSerialNumber());
-
-            return new ResponseEntity<>(result.getData(), headers, HttpStatus.OK);
+            return pkpassResponse(result);
         } catch (Exception e) {
             logger.error("Error generating pass", e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .body("{\"error\":\"Failed to generate pass: " + e.getMessage() + "\"}");
+            return errorResponse(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to generate pass: " + e.getMessage());
         }
     }
 
@@ -52,18 +101,53 @@ public class PassController {
         try {
             PassGeneratorService.PassGenerationResult result = passGeneratorService.generatePass(null, type);
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.parseMediaType("application/vnd.apple.pkpass"));
-            headers.setContentDispositionFormData("attachment", "pass.pkpass");
-            headers.setContentLength(result.getData().length);
-            headers.add("X-Pass-Serial-Number", result.getSerialNumber());
-
-            return new ResponseEntity<>(result.getData(), headers, HttpStatus.OK);
+            return pkpassResponse(result);
         } catch (Exception e) {
             logger.error("Error generating pass", e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .body("{\"error\":\"Failed to generate pass: " + e.getMessage() + "\"}");
+            return errorResponse(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to generate pass: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Generate many passes in one request. Passes are signed in parallel and
+     * streamed back as a zip of {serialNumber}.pkpass files, or with
+     * format=ndjson as one JSON line per generated pass.
+     */
+    @PostMapping("/batch")
+    public void generateBatch(
+            @RequestBody List<PassRequest> requests,
+            @RequestParam(defaultValue = "zip") String format,
+            HttpServletResponse response) throws IOException {
+        BatchPassService.OutputFormat outputFormat;
+        try {
+            batchPassService.validate(requests);
+            outputFormat = BatchPassService.OutputFormat.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            writeError(response, HttpStatus.BAD_REQUEST, "Invalid batch request: " + e.getMessage());
+            return;
+        }
+
+        // Written chunk by chunk on the request thread while the signing pool works
+        if (outputFormat == BatchPassService.OutputFormat.ZIP) {
+            response.setContentType("application/zip");
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                    ContentDisposition.formData().name("attachment").filename("passes.zip").build().toString());
+        } else {
+            response.setContentType("application/x-ndjson");
+        }
+
+        try {
+            batchPassService.generateBatch(requests, outputFormat, response.getOutputStream());
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Error generating pass batch", e);
+            if (response.isCommitted()) {
+                // Part of the batch is already sent; abort so the client sees a truncated response
+                throw new IOException("Failed to generate pass batch: " + e.getMessage(), e);
+            }
+            response.reset();
+            writeError(response, HttpStatus.INTERNAL_SERVER_ERROR, "Failed to generate pass batch: " + e.getMessage());
         }
     }
 
@@ -77,37 +161,11 @@ public class PassController {
             @PathVariable String serialNumber,
             @RequestParam(required = false) String type) {
         try {
-            // If it's a GET request and we are just requesting by ID, try to get existing
-            // first
-            PassGeneratorService.PassGenerationResult result;
-
-            result = passGeneratorService.getUpdatedPass(serialNumber);
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.parseMediaType("application/vnd.apple.pkpass"));
-            headers.setContentDispositionFormData("attachment", "pass.pkpass");
-            headers.setContentLength(result.getData().length);
-            headers.add("X-Pass-Serial-Number", result.getSerialNumber());
-
-            return new ResponseEntity<>(result.getData(), headers, HttpStatus.OK);
+            // Serve the existing pass; unknown or revoked serials are generated from the static template
+            return pkpassResponse(passGeneratorService.getOrCreatePass(serialNumber, type));
         } catch (Exception e) {
-            // If not found and we have type or it's a creation intent, could fallback to
-            // generate from static template
-            try {
-                PassGeneratorService.PassGenerationResult result = passGeneratorService
-                        .generatePass(serialNumber, type);
-                HttpHeaders headers = new HttpHeaders();
-                headers.setContentType(MediaType.parseMediaType("application/vnd.apple.pkpass"));
-                headers.setContentDispositionFormData("attachment", "pass.pkpass");
-                headers.setContentLength(result.getData().length);
-                headers.add("X-Pass-Serial-Number", result.getSerialNumber());
-                return new ResponseEntity<>(result.getData(), headers, HttpStatus.OK);
-            } catch (Exception ex) {
-                logger.error("Error generating pass with ID: {}", serialNumber, ex);
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                        .contentType(MediaType.APPLICATION_JSON)
-                        .body("{\"error\":\"Failed to generate pass: " + ex.getMessage() + "\"}");
-            }
+            logger.error("Error generating pass with ID: {}", serialNumber, e);
+            return errorResponse(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to generate pass: " + e.getMessage());
         }
     }
 
@@ -128,18 +186,10 @@ public class PassController {
                 result = passGeneratorService.generatePass(serialNumber, request);
             }
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.parseMediaType("application/vnd.apple.pkpass"));
-            headers.setContentDispositionFormData("attachment", "pass.pkpass");
-            headers.setContentLength(result.getData().length);
-            headers.add("X-Pass-Serial-Number", result.getSerialNumber());
-
-            return new ResponseEntity<>(result.getData(), headers, HttpStatus.OK);
+            return pkpassResponse(result);
         } catch (Exception e) {
             logger.error("Error updating pass: {}", serialNumber, e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .body("{\"error\":\"Failed to update pass: " + e.getMessage() + "\"}");
+            return errorResponse(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to update pass: " + e.getMessage());
         }
     }
 
@@ -175,6 +225,35 @@ public class PassController {
         }
     }
 
+    /**
+     * Reload the static pass assets (icons) after they have changed
+     */
+    @PostMapping("/assets/reload")
+    public ResponseEntity<?> reloadAssets() {
+        PassAssetBundle bundle = passAssetService.reload();
+        return ResponseEntity.ok(Map.of("assets", bundle.getAssets().size()));
+    }
+
+    /**
+     * Runtime statistics for the pass pipeline
+     */
+    @GetMapping("/stats")
+    public ResponseEntity<?> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("artifactCache", passArtifactCache.getStats());
+        stats.put("passFetch", passGeneratorService.getFetchStats());
+        stats.put("negativeCache", passNegativeCache.getStats());
+        stats.put("registrations", passRegistrationService.getStats());
+        stats.put("deviceLogs", deviceLogSink.getStats());
+        stats.put("outbox", pushOutboxDispatcher.getStats());
+        stats.put("fanout", pushFanoutPlanner.getStats());
+        stats.put("fanoutJobs", pushFanoutEngine.getStats());
+        stats.put("pushRetries", pushRetryScheduler.getStats());
+        stats.put("deadTokens", deadTokenPruner.getStats());
+        stats.put("apns", apnsClient.getStats());
+        return ResponseEntity.ok(stats);
+    }
+
     @GetMapping("/health")
     public ResponseEntity<String> health() {
         return ResponseEntity.ok("PassKit Backend is running");
@@ -192,18 +271,37 @@ public class PassController {
             PassGeneratorService.PassGenerationResult result = passGeneratorService.updatePassFromParams(serialNumber,
                     allParams);
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.parseMediaType("application/vnd.apple.pkpass"));
-            headers.setContentDispositionFormData("attachment", "pass.pkpass");
-            headers.setContentLength(result.getData().length);
-            headers.add("X-Pass-Serial-Number", result.getSerialNumber());
-
-            return new ResponseEntity<>(result.getData(), headers, HttpStatus.OK);
+            return pkpassResponse(result);
         } catch (Exception e) {
             logger.error("Error updating pass from params: {}", serialNumber, e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .body("{\"error\":\"Failed to update pass: " + e.getMessage() + "\"}");
+            return errorResponse(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to update pass: " + e.getMessage());
         }
     }
+
+    /**
+     * A .pkpass archive response, written by {@link PkpassMessageConverter}
+     * with its size sent up front as Content-Length
+     */
+    private ResponseEntity<PkpassArchive> pkpassResponse(PassGeneratorService.PassGenerationResult result) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(PkpassMessageConverter.PKPASS);
+        headers.setContentDispositionFormData("attachment", "pass.pkpass");
+        headers.add("X-Pass-Serial-Number", result.getSerialNumber());
+
+        return new ResponseEntity<>(result.getArchive(), headers, HttpStatus.OK);
+    }
+
+    private ResponseEntity<String> errorResponse(HttpStatus status, String message) {
+        return ResponseEntity.status(status)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body("{\"error\":\"" + message + "\"}");
+    }
+
+    private void writeError(HttpServletResponse response, HttpStatus status, String message) throws IOException {
+        byte[] body = ("{\"error\":\"" + message + "\"}").getBytes(StandardCharsets.UTF_8);
+        response.setStatus(status.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
 }
@@ -0,0 +1,65 @@
+package com.example.passkit.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import com.example.passkit.service.CompiledPassTemplate;
+import com.example.passkit.service.PassTemplateService;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Register and inspect pass templates. Templates registered here are kept in
+ * memory and take effect for the next pass generated with their type code.
+ */
+@RestController
+@RequestMapping("/api/templates")
+@CrossOrigin(origins = "*")
+public class PassTemplateController {
+
+    private static final Logger logger = LoggerFactory.getLogger(PassTemplateController.class);
+
+    @Autowired
+    private PassTemplateService passTemplateService;
+
+    @GetMapping
+    public ResponseEntity<?> listTemplates() {
+        List<Map<String, Object>> templates = new ArrayList<>();
+        for (CompiledPassTemplate template : passTemplateService.getTemplates()) {
+            templates.add(passTemplateService.describe(template));
+        }
+        return ResponseEntity.ok(templates);
+    }
+
+    @GetMapping("/{name}")
+    public ResponseEntity<?> getTemplate(@PathVariable String name) {
+        CompiledPassTemplate template = passTemplateService.getTemplate(name);
+        if (template == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "Template not found: " + name));
+        }
+        return ResponseEntity.ok(passTemplateService.describe(template));
+    }
+
+    /**
+     * Register a template: {"name": ..., "aliases": [...], "pass": {...}}
+     */
+    @PostMapping
+    public ResponseEntity<?> registerTemplate(@RequestBody JsonNode definition) {
+        try {
+            CompiledPassTemplate template = passTemplateService.register(definition);
+            return ResponseEntity.status(HttpStatus.CREATED).body(passTemplateService.describe(template));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            logger.error("Error registering pass template", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Failed to register template: " + e.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.passkit.controller;
+
+import com.example.passkit.service.PkpassArchive;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Writes a {@link PkpassArchive} response body straight to the servlet
+ * output stream on the request thread, with its size as Content-Length.
+ * The archive is already complete in memory, so there is nothing to gain
+ * from handing the write to an async executor.
+ */
+@Component
+public class PkpassMessageConverter extends AbstractHttpMessageConverter<PkpassArchive> {
+
+    public static final MediaType PKPASS = MediaType.parseMediaType("application/vnd.apple.pkpass");
+
+    public PkpassMessageConverter() {
+        super(PKPASS);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return PkpassArchive.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected Long getContentLength(PkpassArchive archive, MediaType contentType) {
+        return (long) archive.getLength();
+    }
+
+    @Override
+    protected PkpassArchive readInternal(Class<? extends PkpassArchive> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException(".pkpass request bodies are not supported", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(PkpassArchive archive, HttpOutputMessage outputMessage) throws IOException {
+        archive.writeTo(outputMessage.getBody());
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.passkit.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import com.example.passkit.service.PushFanoutEngine;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Start and follow push fan-outs. A fan-out runs in the background; the job
+ * returned when it is started can be polled for progress.
+ */
+@RestController
+@RequestMapping("/api/push")
+@CrossOrigin(origins = "*")
+public class PushController {
+
+    @Autowired
+    private PushFanoutEngine pushFanoutEngine;
+
+    /**
+     * Notify devices of a pass type: {"passTypeId": ..., "serialNumbers": [...]}.
+     * Without serialNumbers every pass of the type is announced.
+     */
+    @PostMapping("/jobs")
+    public ResponseEntity<?> startJob(@RequestBody JsonNode request) {
+        String passTypeId = request.path("passTypeId").asText("");
+        if (passTypeId.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "passTypeId is required"));
+        }
+
+        List<String> serialNumbers = null;
+        JsonNode serials = request.get("serialNumbers");
+        if (serials != null && !serials.isNull()) {
+            if (!serials.isArray()) {
+                return ResponseEntity.badRequest().body(Map.of("error", "serialNumbers must be an array"));
+            }
+            serialNumbers = new ArrayList<>();
+            for (JsonNode serial : serials) {
+                serialNumbers.add(serial.asText());
+            }
+        }
+
+        PushFanoutEngine.FanoutJob job = pushFanoutEngine.submit(passTypeId, serialNumbers);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(job.toMap());
+    }
+
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<?> getJob(@PathVariable String id) {
+        PushFanoutEngine.FanoutJob job = pushFanoutEngine.getJob(id);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "Push job not found: " + id));
+        }
+        return ResponseEntity.ok(job.toMap());
+    }
+
+    @GetMapping("/jobs")
+    public ResponseEntity<?> listJobs() {
+        List<Map<String, Object>> jobs = new ArrayList<>();
+        for (PushFanoutEngine.FanoutJob job : pushFanoutEngine.getJobs()) {
+            jobs.add(job.toMap());
+        }
+        return ResponseEntity.ok(jobs);
+    }
+}
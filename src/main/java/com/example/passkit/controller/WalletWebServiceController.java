@@ -1,21 +1,25 @@
 package com.example.passkit.controller;
 
+import com.example.passkit.repository.PassHeader;
+import com.example.passkit.service.DeviceLogSink;
+import com.example.passkit.service.PassAuthTokenService;
 import com.example.passkit.service.PassGeneratorService;
 import com.example.passkit.service.PassRegistrationService;
+import com.example.passkit.service.PkpassArchive;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 /**
  * Apple Wallet Web Service Protocol endpoints
@@ -34,8 +38,11 @@ public class WalletWebServiceController {
     @Autowired
     private PassGeneratorService passGeneratorService;
 
-    @Value("${passkit.auth.token:}")
-    private String expectedAuthToken;
+    @Autowired
+    private DeviceLogSink deviceLogSink;
+
+    @Autowired
+    private PassAuthTokenService passAuthTokenService;
 
     /**
      * Register a device to receive push notifications for a pass
@@ -53,7 +60,7 @@ public class WalletWebServiceController {
                 deviceId, passTypeId, serialNumber);
 
         // Validate authentication token
-        if (!validateAuthToken(authHeader)) {
+        if (!passAuthTokenService.isValid(passTypeId, serialNumber, authHeader)) {
             logger.warn("Invalid authentication token");
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
         }
@@ -93,7 +100,7 @@ public class WalletWebServiceController {
                 deviceId, passTypeId, serialNumber);
 
         // Validate authentication token
-        if (!validateAuthToken(authHeader)) {
+        if (!passAuthTokenService.isValid(passTypeId, serialNumber, authHeader)) {
             logger.warn("Invalid authentication token");
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
         }
@@ -129,25 +136,23 @@ public class WalletWebServiceController {
                 deviceId, passTypeId, passesUpdatedSince);
 
         // Validate authentication token
-        if (!validateAuthToken(authHeader)) {
+        if (!passAuthTokenService.isValidForDevice(authHeader)) {
             logger.warn("Invalid authentication token");
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
         }
 
         try {
-            List<String> serialNumbers = registrationService
-                    .getRegisteredSerialNumbers(deviceId, passTypeId);
+            PassRegistrationService.SerialNumberUpdates updates = registrationService
+                    .getUpdatedSerialNumbers(deviceId, passTypeId, parseUpdateTag(passesUpdatedSince));
 
-            if (serialNumbers.isEmpty()) {
+            if (updates.getSerialNumbers().isEmpty()) {
                 return ResponseEntity.noContent().build();
             }
 
-            // Return current timestamp as lastUpdated tag
-            String currentTag = LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME);
-
+            // The tag is opaque to the device, which sends it back on its next sync
             Map<String, Object> response = Map.of(
-                    "serialNumbers", serialNumbers,
-                    "lastUpdated", currentTag);
+                    "serialNumbers", updates.getSerialNumbers(),
+                    "lastUpdated", Long.toString(updates.getLastUpdated()));
 
             return ResponseEntity.ok(response);
 
@@ -160,43 +165,60 @@ public class WalletWebServiceController {
     /**
      * Get the latest version of a pass
      * GET /v1/passes/{passTypeId}/{serialNumber}
+     *
+     * The ETag is the serial number and version, Last-Modified is the time of
+     * the last update. A matching If-None-Match or If-Modified-Since is
+     * answered with 304 from the pass header alone, without building the pass.
      */
     @GetMapping("/passes/{passTypeId}/{serialNumber}")
-    public ResponseEntity<?> getPass(
+    public ResponseEntity<PkpassArchive> getPass(
             @PathVariable String passTypeId,
             @PathVariable String serialNumber,
             @RequestHeader(value = "Authorization", required = false) String authHeader,
-            @RequestHeader(value = "If-Modified-Since", required = false) String ifModifiedSince) {
+            @RequestHeader(value = "If-Modified-Since", required = false) String ifModifiedSince,
+            WebRequest webRequest) {
 
         logger.info("Get pass request: passTypeId={}, serialNumber={}, ifModifiedSince={}",
                 passTypeId, serialNumber, ifModifiedSince);
 
         // Validate authentication token
-        if (!validateAuthToken(authHeader)) {
+        if (!passAuthTokenService.isValid(passTypeId, serialNumber, authHeader)) {
             logger.warn("Invalid authentication token");
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
         }
 
         try {
-            // TODO: Implement If-Modified-Since logic to return 304 Not Modified if pass
-            // hasn't changed
-            // For now, always return the pass
+            Optional<PassHeader> header = passGeneratorService.getPassHeader(serialNumber);
+            if (header.isEmpty()) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+            }
 
-            PassGeneratorService.PassGenerationResult result = passGeneratorService.getUpdatedPass(serialNumber);
-            byte[] pkpassData = result.getData();
+            String etag = "\"" + serialNumber + "." + header.get().getVersion() + "\"";
+            long lastModified = header.get().getUpdatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+            // Sets 304 along with the ETag and Last-Modified headers
+            if (webRequest.checkNotModified(etag, lastModified)) {
+                logger.debug("Pass {} not modified (version {})", serialNumber, header.get().getVersion());
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+            }
+
+            // If the pass changes before it is read, the body is newer than the
+            // validators and the device simply fetches it again next time
+            PassGeneratorService.PassLookup lookup = passGeneratorService.lookupPass(header.get());
+            if (!lookup.isFound()) {
+                logger.info("Pass {} is {}", serialNumber, lookup.getStatus());
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+            }
+            PassGeneratorService.PassGenerationResult result = lookup.getResult();
 
+            // Written on this thread by PkpassMessageConverter, no async dispatch per download
             HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.parseMediaType("application/vnd.apple.pkpass"));
-            headers.setContentLength(pkpassData.length);
-            headers.setLastModified(System.currentTimeMillis());
+            headers.setContentType(PkpassMessageConverter.PKPASS);
 
-            return new ResponseEntity<>(pkpassData, headers, HttpStatus.OK);
+            return new ResponseEntity<>(result.getArchive(), headers, HttpStatus.OK);
 
         } catch (Exception e) {
-            logger.error("Error getting pass: {}", e.getMessage());
-            if (e.getMessage().contains("not found") || e.getMessage().contains("not active")) {
-                return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
-            }
+            logger.error("Error getting pass: {}", serialNumber, e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
@@ -207,35 +229,33 @@ public class WalletWebServiceController {
      */
     @PostMapping("/log")
     public ResponseEntity<?> logError(@RequestBody Map<String, Object> logs) {
-        logger.info("Device log received: {}", logs);
-        // In production, store these logs for debugging
+        Object messages = logs.get("logs");
+        if (messages instanceof List<?> list) {
+            List<String> lines = new ArrayList<>(list.size());
+            for (Object message : list) {
+                lines.add(String.valueOf(message));
+            }
+            int dropped = deviceLogSink.accept(lines);
+            if (dropped > 0) {
+                logger.debug("Device log buffer full, dropped {} message(s)", dropped);
+            }
+        }
         return ResponseEntity.ok().build();
     }
 
     /**
-     * Validate the authentication token
+     * Parse a passesUpdatedSince tag. Missing or unrecognized tags, such as
+     * the timestamps handed out before update tags existed, mean a full sync.
      */
-    private boolean validateAuthToken(String authHeader) {
-        if (expectedAuthToken == null || expectedAuthToken.isEmpty()) {
-            // If no token is configured, deny requests by default for security
-            // To allow unauthenticated access in development, explicitly set an empty token
-            logger.error("SECURITY WARNING: No authentication token configured. Denying request.");
-            logger.error("To allow development access, set passkit.auth.token=dev-bypass in application.properties");
-            return false;
+    private Long parseUpdateTag(String passesUpdatedSince) {
+        if (passesUpdatedSince == null || passesUpdatedSince.isEmpty()) {
+            return null;
         }
-
-        // Allow bypass in development mode with special token
-        if ("dev-bypass".equals(expectedAuthToken)) {
-            logger.warn("Development mode: Authentication bypassed");
-            return true;
-        }
-
-        if (authHeader == null || authHeader.isEmpty()) {
-            return false;
+        try {
+            return Long.parseLong(passesUpdatedSince);
+        } catch (NumberFormatException e) {
+            logger.debug("Ignoring unrecognized passesUpdatedSince tag: {}", passesUpdatedSince);
+            return null;
         }
-
-        // Expected format: "ApplePass <token>"
-        String token = authHeader.replace("ApplePass ", "").trim();
-        return expectedAuthToken.equals(token);
     }
 }
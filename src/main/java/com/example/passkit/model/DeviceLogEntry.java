@@ -0,0 +1,76 @@
+package com.example.passkit.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * A message reported by devices through /v1/log, aggregated over one
+ * window: identical messages are stored once with the number of times they
+ * were received.
+ */
+@Entity
+@Table(name = "device_log_entries",
+        indexes = @Index(name = "idx_device_log_entries_last_seen", columnList = "last_seen"))
+public class DeviceLogEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "message", nullable = false, length = 1000)
+    private String message;
+
+    @Column(name = "occurrences", nullable = false)
+    private Integer occurrences;
+
+    @Column(name = "first_seen", nullable = false)
+    private LocalDateTime firstSeen;
+
+    @Column(name = "last_seen", nullable = false)
+    private LocalDateTime lastSeen;
+
+    // Constructors
+    public DeviceLogEntry() {
+    }
+
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public Integer getOccurrences() {
+        return occurrences;
+    }
+
+    public void setOccurrences(Integer occurrences) {
+        this.occurrences = occurrences;
+    }
+
+    public LocalDateTime getFirstSeen() {
+        return firstSeen;
+    }
+
+    public void setFirstSeen(LocalDateTime firstSeen) {
+        this.firstSeen = firstSeen;
+    }
+
+    public LocalDateTime getLastSeen() {
+        return lastSeen;
+    }
+
+    public void setLastSeen(LocalDateTime lastSeen) {
+        this.lastSeen = lastSeen;
+    }
+}
@@ -5,7 +5,15 @@ import java.time.LocalDateTime;
 
 @Entity
 @Table(name = "device_registrations",
-        uniqueConstraints = @UniqueConstraint(columnNames = {"device_id", "pass_type_id", "serial_number"}))
+        uniqueConstraints = @UniqueConstraint(columnNames = {"device_id", "pass_type_id", "serial_number"}),
+        indexes = {
+                // Devices to notify for a pass, paged by ID; (device_id, pass_type_id) lookups use the unique key
+                @Index(name = "idx_device_registrations_pass", columnList = "pass_type_id, serial_number, id"),
+                // Devices to notify for every pass of a pass type, paged by ID
+                @Index(name = "idx_device_registrations_pass_type", columnList = "pass_type_id, id"),
+                // Registrations of a push token APNs reported dead, for one pass type or all
+                @Index(name = "idx_device_registrations_push_token_pass", columnList = "push_token, pass_type_id")
+        })
 public class DeviceRegistration {
 
     @Id
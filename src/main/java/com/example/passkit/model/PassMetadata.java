@@ -4,7 +4,12 @@ import jakarta.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "pass_metadata")
+@Table(name = "pass_metadata",
+        indexes = {
+                @Index(name = "idx_pass_metadata_update_tag", columnList = "update_tag"),
+                @Index(name = "idx_pass_metadata_updated_at", columnList = "updated_at"),
+                @Index(name = "idx_pass_metadata_status_expires_at", columnList = "status, expires_at")
+        })
 public class PassMetadata {
 
     @Id
@@ -18,9 +23,18 @@ public class PassMetadata {
     @Column(name = "status", nullable = false)
     private PassStatus status;
 
+    // Null on rows written before the column existed, backfilled on first update
+    @Enumerated(EnumType.STRING)
+    @Column(name = "pass_style", length = 20)
+    private PassStyle passStyle;
+
     @Column(name = "version", nullable = false)
     private Integer version;
 
+    // Position in the change feed, assigned on every write by PassMetadataWriter
+    @Column(name = "update_tag")
+    private Long updateTag;
+
     @Column(name = "created_at", nullable = false)
     private LocalDateTime createdAt;
 
@@ -75,6 +89,14 @@ public class PassMetadata {
         this.status = status;
     }
 
+    public PassStyle getPassStyle() {
+        return passStyle;
+    }
+
+    public void setPassStyle(PassStyle passStyle) {
+        this.passStyle = passStyle;
+    }
+
     public Integer getVersion() {
         return version;
     }
@@ -83,6 +105,14 @@ public class PassMetadata {
         this.version = version;
     }
 
+    public Long getUpdateTag() {
+        return updateTag;
+    }
+
+    public void setUpdateTag(Long updateTag) {
+        this.updateTag = updateTag;
+    }
+
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -138,4 +168,25 @@ public class PassMetadata {
         EXPIRED,
         REVOKED
     }
+
+    /**
+     * The pass style, named by its top-level key in pass.json
+     */
+    public enum PassStyle {
+        BOARDING_PASS("boardingPass"),
+        COUPON("coupon"),
+        EVENT_TICKET("eventTicket"),
+        STORE_CARD("storeCard"),
+        GENERIC("generic");
+
+        private final String jsonKey;
+
+        PassStyle(String jsonKey) {
+            this.jsonKey = jsonKey;
+        }
+
+        public String getJsonKey() {
+            return jsonKey;
+        }
+    }
 }
@@ -0,0 +1,135 @@
+package com.example.passkit.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * A pass whose devices must be told it changed. Rows are written in the same
+ * transaction as the pass change and stay until a dispatcher has sent the
+ * pushes, so a change committed before a crash is still announced after it.
+ */
+@Entity
+@Table(name = "push_outbox", indexes = {
+        @Index(name = "idx_push_outbox_due", columnList = "dispatched_at, available_at"),
+        @Index(name = "idx_push_outbox_pass", columnList = "pass_type_id, serial_number")
+})
+public class PushOutboxEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "pass_type_id", nullable = false)
+    private String passTypeId;
+
+    @Column(name = "serial_number", nullable = false)
+    private String serialNumber;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    // Not sent before this time, pushed back by further changes
+    @Column(name = "available_at", nullable = false)
+    private LocalDateTime availableAt;
+
+    // Latest time further changes can push available_at back to
+    @Column(name = "deadline_at", nullable = false)
+    private LocalDateTime deadlineAt;
+
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts = 0;
+
+    @Column(name = "claimed_by", length = 100)
+    private String claimedBy;
+
+    @Column(name = "claimed_until")
+    private LocalDateTime claimedUntil;
+
+    @Column(name = "dispatched_at")
+    private LocalDateTime dispatchedAt;
+
+    // Constructors
+    public PushOutboxEntry() {
+    }
+
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getPassTypeId() {
+        return passTypeId;
+    }
+
+    public void setPassTypeId(String passTypeId) {
+        this.passTypeId = passTypeId;
+    }
+
+    public String getSerialNumber() {
+        return serialNumber;
+    }
+
+    public void setSerialNumber(String serialNumber) {
+        this.serialNumber = serialNumber;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public LocalDateTime getAvailableAt() {
+        return availableAt;
+    }
+
+    public void setAvailableAt(LocalDateTime availableAt) {
+        this.availableAt = availableAt;
+    }
+
+    public LocalDateTime getDeadlineAt() {
+        return deadlineAt;
+    }
+
+    public void setDeadlineAt(LocalDateTime deadlineAt) {
+        this.deadlineAt = deadlineAt;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    public String getClaimedBy() {
+        return claimedBy;
+    }
+
+    public void setClaimedBy(String claimedBy) {
+        this.claimedBy = claimedBy;
+    }
+
+    public LocalDateTime getClaimedUntil() {
+        return claimedUntil;
+    }
+
+    public void setClaimedUntil(LocalDateTime claimedUntil) {
+        this.claimedUntil = claimedUntil;
+    }
+
+    public LocalDateTime getDispatchedAt() {
+        return dispatchedAt;
+    }
+
+    public void setDispatchedAt(LocalDateTime dispatchedAt) {
+        this.dispatchedAt = dispatchedAt;
+    }
+}
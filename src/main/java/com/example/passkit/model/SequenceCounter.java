@@ -0,0 +1,45 @@
+package com.example.passkit.model;
+
+import jakarta.persistence.*;
+
+/**
+ * Named, database-backed counter. Rows are locked while a range of values is
+ * reserved, so every node sharing the database sees a single sequence.
+ */
+@Entity
+@Table(name = "sequence_counters")
+public class SequenceCounter {
+
+    @Id
+    @Column(name = "name", length = 100)
+    private String name;
+
+    @Column(name = "next_value", nullable = false)
+    private Long nextValue;
+
+    // Constructors
+    public SequenceCounter() {
+    }
+
+    public SequenceCounter(String name, Long nextValue) {
+        this.name = name;
+        this.nextValue = nextValue;
+    }
+
+    // Getters and Setters
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Long getNextValue() {
+        return nextValue;
+    }
+
+    public void setNextValue(Long nextValue) {
+        this.nextValue = nextValue;
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.passkit.repository;
+
+import com.example.passkit.service.DeviceLogSink;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+
+/**
+ * Bulk insert of aggregated device log messages
+ */
+@Repository
+public class DeviceLogBatchRepository {
+
+    private static final String INSERT_SQL = "INSERT INTO device_log_entries "
+            + "(message, occurrences, first_seen, last_seen) VALUES (?, ?, ?, ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Transactional
+    public void insertAll(Collection<DeviceLogSink.AggregatedMessage> messages, int batchSize) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, messages, batchSize, (ps, message) -> {
+            ps.setString(1, message.getMessage());
+            ps.setInt(2, message.getOccurrences());
+            ps.setTimestamp(3, new Timestamp(message.getFirstSeen()));
+            ps.setTimestamp(4, new Timestamp(message.getLastSeen()));
+        });
+    }
+}
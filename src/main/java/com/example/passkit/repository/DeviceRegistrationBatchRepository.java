@@ -0,0 +1,117 @@
+package com.example.passkit.repository;
+
+import com.example.passkit.service.DeadTokenPruner;
+import com.example.passkit.service.RegistrationJournal;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Bulk writes of buffered device registration changes, keyed on the unique
+ * (device_id, pass_type_id, serial_number) constraint
+ */
+@Repository
+public class DeviceRegistrationBatchRepository {
+
+    private static final String UPSERT_SQL = "MERGE INTO device_registrations r "
+            + "USING (VALUES (CAST(? AS VARCHAR(100)), CAST(? AS VARCHAR(255)), CAST(? AS VARCHAR(100)), "
+            + "CAST(? AS VARCHAR(255)), CAST(? AS TIMESTAMP))) "
+            + "AS s (device_id, pass_type_id, serial_number, push_token, changed_at) "
+            + "ON r.device_id = s.device_id AND r.pass_type_id = s.pass_type_id "
+            + "AND r.serial_number = s.serial_number "
+            + "WHEN MATCHED AND (r.push_token IS NULL OR r.push_token <> s.push_token) THEN "
+            + "UPDATE SET push_token = s.push_token, updated_at = s.changed_at "
+            + "WHEN NOT MATCHED THEN "
+            + "INSERT (device_id, pass_type_id, serial_number, push_token, registered_at) "
+            + "VALUES (s.device_id, s.pass_type_id, s.serial_number, s.push_token, s.changed_at)";
+
+    private static final String DELETE_SQL = "DELETE FROM device_registrations "
+            + "WHERE device_id = ? AND pass_type_id = ? AND serial_number = ?";
+
+    // Registrations changed after the push was sent belong to a new registration
+    static final String DELETE_UNREGISTERED_TOKEN_SQL = "DELETE FROM device_registrations "
+            + "WHERE push_token = ? AND pass_type_id = ? AND COALESCE(updated_at, registered_at) <= ?";
+
+    static final String DELETE_BAD_TOKEN_SQL = "DELETE FROM device_registrations "
+            + "WHERE push_token = ? AND COALESCE(updated_at, registered_at) <= ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${passkit.registration.jdbc-batch-size:1000}")
+    private int jdbcBatchSize;
+
+    /**
+     * Apply registrations and unregistrations in one transaction
+     */
+    @Transactional
+    public void applyAll(List<RegistrationJournal.Record> registrations,
+            List<RegistrationJournal.Record> unregistrations) {
+        if (!registrations.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPSERT_SQL, registrations, jdbcBatchSize, (ps, record) -> {
+                ps.setString(1, record.getDeviceId());
+                ps.setString(2, record.getPassTypeId());
+                ps.setString(3, record.getSerialNumber());
+                ps.setString(4, record.getPushToken());
+                ps.setTimestamp(5, new Timestamp(record.getTimestamp()));
+            });
+        }
+        if (!unregistrations.isEmpty()) {
+            jdbcTemplate.batchUpdate(DELETE_SQL, unregistrations, jdbcBatchSize, (ps, record) -> {
+                ps.setString(1, record.getDeviceId());
+                ps.setString(2, record.getPassTypeId());
+                ps.setString(3, record.getSerialNumber());
+            });
+        }
+    }
+
+    /**
+     * Delete the registrations of dead push tokens: for the reported pass
+     * type only when the token was unregistered, for every pass type when
+     * it is a bad device token
+     *
+     * @return Rows deleted
+     */
+    @Transactional
+    public int deleteDeadPushTokens(Collection<DeadTokenPruner.DeadToken> deadTokens) {
+        List<DeadTokenPruner.DeadToken> unregistered = new ArrayList<>();
+        List<DeadTokenPruner.DeadToken> bad = new ArrayList<>();
+        for (DeadTokenPruner.DeadToken token : deadTokens) {
+            (token.getPassTypeId() != null ? unregistered : bad).add(token);
+        }
+
+        int deleted = 0;
+        if (!unregistered.isEmpty()) {
+            deleted += sum(jdbcTemplate.batchUpdate(DELETE_UNREGISTERED_TOKEN_SQL, unregistered, jdbcBatchSize,
+                    (ps, token) -> {
+                        ps.setString(1, token.getPushToken());
+                        ps.setString(2, token.getPassTypeId());
+                        ps.setTimestamp(3, new Timestamp(token.getSentAt()));
+                    }));
+        }
+        if (!bad.isEmpty()) {
+            deleted += sum(jdbcTemplate.batchUpdate(DELETE_BAD_TOKEN_SQL, bad, jdbcBatchSize, (ps, token) -> {
+                ps.setString(1, token.getPushToken());
+                ps.setTimestamp(2, new Timestamp(token.getSentAt()));
+            }));
+        }
+        return deleted;
+    }
+
+    private static int sum(int[][] counts) {
+        int total = 0;
+        for (int[] batch : counts) {
+            for (int count : batch) {
+                total += Math.max(0, count);
+            }
+        }
+        return total;
+    }
+}
@@ -1,9 +1,13 @@
 package com.example.passkit.repository;
 
 import com.example.passkit.model.DeviceRegistration;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -13,9 +17,49 @@ public interface DeviceRegistrationRepository extends JpaRepository<DeviceRegist
     Optional<DeviceRegistration> findByDeviceIdAndPassTypeIdAndSerialNumber(
             String deviceId, String passTypeId, String serialNumber);
 
-    List<DeviceRegistration> findByDeviceIdAndPassTypeId(String deviceId, String passTypeId);
+    /**
+     * Serial numbers of the passes a device is registered for
+     */
+    @Query("select r.serialNumber from DeviceRegistration r "
+            + "where r.deviceId = :deviceId and r.passTypeId = :passTypeId")
+    List<String> findSerialNumbers(@Param("deviceId") String deviceId, @Param("passTypeId") String passTypeId);
 
-    List<DeviceRegistration> findByPassTypeIdAndSerialNumber(String passTypeId, String serialNumber);
+    /**
+     * Next page of push tokens registered for any of the given passes, after
+     * the row ID {@code afterId} (keyset pagination). The (pass_type_id,
+     * serial_number, id) index enters each pass at afterId, so only the rows
+     * after it are read and sorted.
+     */
+    @Query("select r.id as id, r.deviceId as deviceId, r.serialNumber as serialNumber, r.pushToken as pushToken "
+            + "from DeviceRegistration r "
+            + "where r.passTypeId = :passTypeId and r.serialNumber in :serialNumbers and r.id > :afterId "
+            + "order by r.id")
+    List<PushTokenRow> findPushTokenPage(@Param("passTypeId") String passTypeId,
+            @Param("serialNumbers") Collection<String> serialNumbers, @Param("afterId") long afterId,
+            Pageable page);
+
+    /**
+     * Next page of push tokens registered for any pass of a pass type, after
+     * the row ID {@code afterId}. Ordered by the (pass_type_id, id) index
+     * columns, so the page is read in index order and not sorted.
+     */
+    @Query("select r.id as id, r.deviceId as deviceId, r.serialNumber as serialNumber, r.pushToken as pushToken "
+            + "from DeviceRegistration r "
+            + "where r.passTypeId = :passTypeId and r.id > :afterId order by r.passTypeId, r.id")
+    List<PushTokenRow> findPushTokenPageForPassType(@Param("passTypeId") String passTypeId,
+            @Param("afterId") long afterId, Pageable page);
+
+    /**
+     * Passes a device is registered for whose update tag is greater than
+     * {@code since}. Rows written before update tags existed count as tag 0.
+     */
+    @Query("select p.serialNumber as serialNumber, p.updateTag as updateTag "
+            + "from DeviceRegistration r join PassMetadata p "
+            + "on p.serialNumber = r.serialNumber and p.passTypeId = r.passTypeId "
+            + "where r.deviceId = :deviceId and r.passTypeId = :passTypeId "
+            + "and coalesce(p.updateTag, 0) > :since")
+    List<UpdatedSerial> findUpdatedSerials(@Param("deviceId") String deviceId,
+            @Param("passTypeId") String passTypeId, @Param("since") long since);
 
     void deleteByDeviceIdAndPassTypeIdAndSerialNumber(
             String deviceId, String passTypeId, String serialNumber);
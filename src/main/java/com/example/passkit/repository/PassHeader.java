@@ -0,0 +1,24 @@
+package com.example.passkit.repository;
+
+import com.example.passkit.model.PassMetadata;
+
+import java.time.LocalDateTime;
+
+/**
+ * Pass metadata without the pass.json document, for checks that only need
+ * the version and status of a pass
+ */
+public interface PassHeader {
+
+    String getSerialNumber();
+
+    String getPassTypeId();
+
+    PassMetadata.PassStatus getStatus();
+
+    Integer getVersion();
+
+    Long getUpdateTag();
+
+    LocalDateTime getUpdatedAt();
+}
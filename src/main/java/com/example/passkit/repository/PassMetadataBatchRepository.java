@@ -0,0 +1,63 @@
+package com.example.passkit.repository;
+
+import com.example.passkit.model.PassMetadata;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Plain JDBC writes for pass creation. Going through JPA would issue a
+ * select plus an insert per row because PassMetadata uses an assigned id,
+ * and would update an existing row with the same serial number instead of
+ * failing.
+ */
+@Repository
+public class PassMetadataBatchRepository {
+
+    private static final String INSERT_SQL = "INSERT INTO pass_metadata "
+            + "(serial_number, pass_type_id, pass_style, status, version, update_tag, created_at, updated_at, "
+            + "pass_data) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${passkit.batch.jdbc-batch-size:500}")
+    private int jdbcBatchSize;
+
+    /**
+     * Insert one new pass
+     *
+     * @throws org.springframework.dao.DuplicateKeyException if the serial number is taken
+     */
+    @Transactional
+    public void insert(PassMetadata metadata) {
+        jdbcTemplate.update(INSERT_SQL, ps -> setValues(ps, metadata));
+    }
+
+    /**
+     * Insert new pass metadata rows using JDBC statement batching
+     */
+    @Transactional
+    public void insertAll(List<PassMetadata> passes) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, passes, jdbcBatchSize, PassMetadataBatchRepository::setValues);
+    }
+
+    private static void setValues(PreparedStatement ps, PassMetadata metadata) throws SQLException {
+        ps.setString(1, metadata.getSerialNumber());
+        ps.setString(2, metadata.getPassTypeId());
+        ps.setString(3, metadata.getPassStyle().name());
+        ps.setString(4, metadata.getStatus().name());
+        ps.setInt(5, metadata.getVersion());
+        ps.setLong(6, metadata.getUpdateTag());
+        ps.setTimestamp(7, Timestamp.valueOf(metadata.getCreatedAt()));
+        ps.setTimestamp(8, Timestamp.valueOf(metadata.getUpdatedAt()));
+        ps.setString(9, metadata.getPassData());
+    }
+}
@@ -4,6 +4,8 @@ import com.example.passkit.model.PassMetadata;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -12,4 +14,20 @@ public interface PassMetadataRepository extends JpaRepository<PassMetadata, Stri
     Optional<PassMetadata> findBySerialNumber(String serialNumber);
 
     boolean existsBySerialNumber(String serialNumber);
+
+    /**
+     * Version and status of a pass, without loading pass_data
+     */
+    Optional<PassHeader> findHeaderBySerialNumber(String serialNumber);
+
+    /**
+     * Version and status of several passes in one query; unknown serial
+     * numbers are left out
+     */
+    List<PassHeader> findHeadersBySerialNumberIn(Collection<String> serialNumbers);
+
+    /**
+     * Stored pass.json and version of a pass, for signing
+     */
+    Optional<StoredPassData> findPassDataBySerialNumber(String serialNumber);
 }
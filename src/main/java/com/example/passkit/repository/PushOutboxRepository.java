@@ -0,0 +1,184 @@
+package com.example.passkit.repository;
+
+import com.example.passkit.model.PushOutboxEntry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes and claims of push_outbox rows.
+ *
+ * Claims lock candidate rows with FOR UPDATE SKIP LOCKED, so dispatchers on
+ * several nodes polling the same table each take a disjoint batch instead
+ * of waiting on one another, then lease them to their node until the pushes
+ * are sent.
+ */
+@Repository
+public class PushOutboxRepository {
+
+    // Later changes to a pass not yet claimed push its row back, up to its deadline
+    private static final String DEFER_SQL = "UPDATE push_outbox SET available_at = LEAST(?, deadline_at) "
+            + "WHERE pass_type_id = ? AND serial_number = ? AND dispatched_at IS NULL AND claimed_by IS NULL";
+
+    private static final String INSERT_SQL = "INSERT INTO push_outbox "
+            + "(pass_type_id, serial_number, created_at, available_at, deadline_at, attempts) "
+            + "VALUES (?, ?, ?, ?, ?, 0)";
+
+    private static final String SELECT_DUE_SQL = "SELECT id, pass_type_id, serial_number, available_at "
+            + "FROM push_outbox WHERE dispatched_at IS NULL AND available_at <= ? "
+            + "AND (claimed_until IS NULL OR claimed_until < ?) "
+            + "ORDER BY available_at LIMIT ? FOR UPDATE SKIP LOCKED";
+
+    private static final String CLAIM_SQL = "UPDATE push_outbox "
+            + "SET claimed_by = ?, claimed_until = ?, attempts = attempts + 1 WHERE id = ?";
+
+    // Lease updates only apply while the row is still leased to the caller
+    private static final String EXTEND_SQL = "UPDATE push_outbox "
+            + "SET claimed_until = ? WHERE id = ? AND claimed_by = ? AND dispatched_at IS NULL";
+
+    private static final String DISPATCHED_SQL = "UPDATE push_outbox "
+            + "SET dispatched_at = ?, claimed_by = NULL, claimed_until = NULL "
+            + "WHERE id = ? AND claimed_by = ? AND dispatched_at IS NULL";
+
+    private static final String RELEASE_SQL = "UPDATE push_outbox "
+            + "SET available_at = ?, claimed_by = NULL, claimed_until = NULL "
+            + "WHERE id = ? AND claimed_by = ? AND dispatched_at IS NULL";
+
+    private static final String RELEASE_OWNER_SQL = "UPDATE push_outbox "
+            + "SET claimed_by = NULL, claimed_until = NULL WHERE claimed_by = ? AND dispatched_at IS NULL";
+
+    private static final RowMapper<PushOutboxEntry> ROW_MAPPER = (rs, rowNum) -> {
+        PushOutboxEntry entry = new PushOutboxEntry();
+        entry.setId(rs.getLong("id"));
+        entry.setPassTypeId(rs.getString("pass_type_id"));
+        entry.setSerialNumber(rs.getString("serial_number"));
+        entry.setAvailableAt(rs.getTimestamp("available_at").toLocalDateTime());
+        return entry;
+    };
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Record that a pass changed, as part of the transaction making the change
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void enqueue(String passTypeId, String serialNumber, long availableAt, long deadlineAt) {
+        int deferred = jdbcTemplate.update(DEFER_SQL, new Timestamp(availableAt), passTypeId, serialNumber);
+        if (deferred == 0) {
+            jdbcTemplate.update(INSERT_SQL, passTypeId, serialNumber, new Timestamp(System.currentTimeMillis()),
+                    new Timestamp(availableAt), new Timestamp(deadlineAt));
+        }
+    }
+
+    /**
+     * Lease up to limit rows to owner until leaseUntil. Nothing is claimed
+     * unless the earliest candidate is due at now; rows due by horizon are
+     * then claimed with it, so they share a fan-out.
+     */
+    @Transactional
+    public List<PushOutboxEntry> claim(String owner, long now, long horizon, long leaseUntil, int limit) {
+        Timestamp nowTs = new Timestamp(now);
+        List<PushOutboxEntry> rows = jdbcTemplate.query(SELECT_DUE_SQL, ROW_MAPPER,
+                new Timestamp(horizon), nowTs, limit);
+        if (rows.isEmpty() || rows.get(0).getAvailableAt().isAfter(nowTs.toLocalDateTime())) {
+            return List.of();
+        }
+
+        Timestamp lease = new Timestamp(leaseUntil);
+        jdbcTemplate.batchUpdate(CLAIM_SQL, rows, rows.size(), (ps, row) -> {
+            ps.setString(1, owner);
+            ps.setTimestamp(2, lease);
+            ps.setLong(3, row.getId());
+        });
+        return rows;
+    }
+
+    /**
+     * Extend the lease of rows still leased to owner
+     *
+     * @return Ids of the rows no longer leased to owner or already dispatched
+     */
+    @Transactional
+    public List<Long> extendLeases(String owner, List<Long> ids, long leaseUntil) {
+        Timestamp until = new Timestamp(leaseUntil);
+        int[][] counts = jdbcTemplate.batchUpdate(EXTEND_SQL, ids, ids.size(), (ps, id) -> {
+            ps.setTimestamp(1, until);
+            ps.setLong(2, id);
+            ps.setString(3, owner);
+        });
+        List<Long> lost = new ArrayList<>();
+        int i = 0;
+        for (int[] batch : counts) {
+            for (int count : batch) {
+                if (count == 0) {
+                    lost.add(ids.get(i));
+                }
+                i++;
+            }
+        }
+        return lost;
+    }
+
+    /**
+     * @return Rows marked; rows no longer leased to owner are left alone
+     */
+    @Transactional
+    public int markDispatched(String owner, List<Long> ids, long dispatchedAt) {
+        Timestamp at = new Timestamp(dispatchedAt);
+        return sum(jdbcTemplate.batchUpdate(DISPATCHED_SQL, ids, ids.size(), (ps, id) -> {
+            ps.setTimestamp(1, at);
+            ps.setLong(2, id);
+            ps.setString(3, owner);
+        }));
+    }
+
+    /**
+     * Give rows leased to owner back, to be claimed again from availableAt
+     */
+    @Transactional
+    public int release(String owner, List<Long> ids, long availableAt) {
+        Timestamp at = new Timestamp(availableAt);
+        return sum(jdbcTemplate.batchUpdate(RELEASE_SQL, ids, ids.size(), (ps, id) -> {
+            ps.setTimestamp(1, at);
+            ps.setLong(2, id);
+            ps.setString(3, owner);
+        }));
+    }
+
+    /**
+     * Give back every row leased to owner, for a node that restarted
+     */
+    @Transactional
+    public int releaseOwnedBy(String owner) {
+        return jdbcTemplate.update(RELEASE_OWNER_SQL, owner);
+    }
+
+    @Transactional
+    public int deleteDispatchedBefore(long cutoff) {
+        return jdbcTemplate.update("DELETE FROM push_outbox WHERE dispatched_at < ?", new Timestamp(cutoff));
+    }
+
+    public long countPending() {
+        Long count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM push_outbox WHERE dispatched_at IS NULL", Long.class);
+        return count != null ? count : 0;
+    }
+
+    private static int sum(int[][] counts) {
+        int total = 0;
+        for (int[] batch : counts) {
+            for (int count : batch) {
+                total += Math.max(0, count);
+            }
+        }
+        return total;
+    }
+}
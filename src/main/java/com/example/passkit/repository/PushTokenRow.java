@@ -0,0 +1,16 @@
+package com.example.passkit.repository;
+
+/**
+ * A registration's row ID, key and push token, for paging through the
+ * devices of many passes by ID
+ */
+public interface PushTokenRow {
+
+    Long getId();
+
+    String getDeviceId();
+
+    String getSerialNumber();
+
+    String getPushToken();
+}
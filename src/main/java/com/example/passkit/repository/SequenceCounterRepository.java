@@ -0,0 +1,19 @@
+package com.example.passkit.repository;
+
+import com.example.passkit.model.SequenceCounter;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface SequenceCounterRepository extends JpaRepository<SequenceCounter, String> {
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select c from SequenceCounter c where c.name = :name")
+    Optional<SequenceCounter> findByNameForUpdate(@Param("name") String name);
+}
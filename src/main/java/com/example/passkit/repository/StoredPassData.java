@@ -0,0 +1,14 @@
+package com.example.passkit.repository;
+
+/**
+ * The stored pass.json of a pass with the version it belongs to, read
+ * without creating a managed entity
+ */
+public interface StoredPassData {
+
+    String getPassTypeId();
+
+    Integer getVersion();
+
+    String getPassData();
+}
@@ -0,0 +1,11 @@
+package com.example.passkit.repository;
+
+/**
+ * A registered pass that changed, with the update tag of its last write
+ */
+public interface UpdatedSerial {
+
+    String getSerialNumber();
+
+    Long getUpdateTag();
+}
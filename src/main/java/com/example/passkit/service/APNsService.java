@@ -1,22 +1,21 @@
 package com.example.passkit.service;
 
-import com.example.passkit.model.DeviceRegistration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Service for sending Apple Push Notification Service (APNs) notifications
  * to inform devices about pass updates.
- * 
- * Note: This is a stub implementation. In production, you would need to:
- * 1. Set up APNs certificates and configure connection to Apple's servers
- * 2. Use a library like pushy or java-apns for sending notifications
- * 3. Handle APNs feedback service for invalid tokens
- * 4. Implement retry logic and error handling
+ *
+ * Pushes go out in the background through {@link PushFanoutEngine}; the
+ * device then calls back to fetch the updated pass.
  */
 @Service
 public class APNsService {
@@ -24,94 +23,27 @@ public class APNsService {
     private static final Logger logger = LoggerFactory.getLogger(APNsService.class);
 
     @Autowired
-    private PassRegistrationService passRegistrationService;
+    private PushFanoutEngine pushFanoutEngine;
 
     /**
-     * Notify devices that a pass has been updated
-     * 
-     * @param passTypeId The pass type identifier
-     * @param serialNumber The serial number of the updated pass
+     * Notify devices that passes have been updated, with one push per device
+     * and pass type however many of its passes changed. Returns as soon as
+     * the fan-outs are queued.
+     *
+     * @param serialNumbersByPassType Serial numbers of the updated passes by pass type
+     * @return One fan-out job per pass type
      */
-    public void notifyPassUpdate(String passTypeId, String serialNumber) {
-        logger.info("Notifying devices about pass update: passTypeId={}, serialNumber={}", 
-                    passTypeId, serialNumber);
-
-        List<DeviceRegistration> registeredDevices = 
-                passRegistrationService.getDevicesForPass(passTypeId, serialNumber);
-
-        if (registeredDevices.isEmpty()) {
-            logger.info("No devices registered for this pass");
-            return;
-        }
-
-        logger.info("Found {} registered device(s) for pass update", registeredDevices.size());
-
-        for (DeviceRegistration device : registeredDevices) {
-            sendPushNotification(device.getPushToken(), passTypeId, serialNumber);
-        }
-    }
-
-    /**
-     * Send push notification to a specific device
-     * 
-     * In production, this would:
-     * 1. Connect to APNs using your certificate
-     * 2. Send an empty push notification (no content, just wake up signal)
-     * 3. Device's Wallet app will then call back to get the updated pass
-     * 
-     * APNs payload format for pass updates:
-     * {
-     *   "aps": {
-     *     "content-available": 1
-     *   }
-     * }
-     */
-    private void sendPushNotification(String pushToken, String passTypeId, String serialNumber) {
-        if (pushToken == null || pushToken.isEmpty()) {
-            logger.warn("No push token available for pass: {}/{}", passTypeId, serialNumber);
-            return;
-        }
-
-        logger.info("Sending APNs notification to token: {}... for pass: {}/{}", 
-                    pushToken.substring(0, Math.min(10, pushToken.length())),
-                    passTypeId, serialNumber);
-
-        // TODO: Implement actual APNs push notification
-        // Example using a library like Pushy or java-apns:
-        /*
-        try {
-            ApnsClient apnsClient = getApnsClient();
-            
-            String payload = "{}"; // Empty push - just wake up the device
-            String topic = passTypeId; // The pass type identifier is the topic
-            
-            SimpleApnsPushNotification pushNotification =
-                new SimpleApnsPushNotification(pushToken, topic, payload);
-            
-            PushNotificationResponse<SimpleApnsPushNotification> response =
-                apnsClient.sendNotification(pushNotification).get();
-            
-            if (response.isAccepted()) {
-                logger.info("Push notification sent successfully");
-            } else {
-                logger.error("Push notification rejected: {}", response.getRejectionReason());
+    public List<PushFanoutEngine.FanoutJob> notifyPassUpdates(Map<String, ? extends Collection<String>> serialNumbersByPassType) {
+        List<PushFanoutEngine.FanoutJob> jobs = new ArrayList<>();
+        for (Map.Entry<String, ? extends Collection<String>> entry : serialNumbersByPassType.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
             }
-        } catch (Exception e) {
-            logger.error("Failed to send push notification", e);
+            PushFanoutEngine.FanoutJob job = pushFanoutEngine.submit(entry.getKey(), entry.getValue());
+            logger.info("Queued fan-out {} for {} updated pass(es) of {}",
+                    job.getId(), entry.getValue().size(), entry.getKey());
+            jobs.add(job);
         }
-        */
-
-        logger.warn("APNs push notification not implemented - pass update notification not sent");
-        logger.info("In production, implement APNs client with your certificate to send push notifications");
+        return jobs;
     }
-
-    /**
-     * Initialize and return APNs client
-     * This would be configured with your APNs certificate and key
-     */
-    // private ApnsClient getApnsClient() {
-    //     // Configure and return APNs client
-    //     // Use production or sandbox environment based on configuration
-    //     return null;
-    // }
 }
@@ -0,0 +1,87 @@
+package com.example.passkit.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.Base64;
+
+/**
+ * Provider authentication token for APNs: a JWT signed with ES256 under the
+ * team's APNs signing key.
+ *
+ * APNs rejects tokens older than an hour and throttles providers that sign a
+ * new one for every request, so the signed token is cached and only
+ * replaced once it is older than the refresh interval.
+ */
+public final class ApnsAuthToken {
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private final PrivateKey signingKey;
+    private final String header;
+    private final String teamId;
+    private final long refreshMillis;
+
+    private volatile Issued current;
+
+    private static final class Issued {
+        private final String token;
+        private final long issuedAt;
+
+        private Issued(String token, long issuedAt) {
+            this.token = token;
+            this.issuedAt = issuedAt;
+        }
+    }
+
+    public ApnsAuthToken(PrivateKey signingKey, String keyId, String teamId, long refreshMillis) {
+        this.signingKey = signingKey;
+        this.header = encode("{\"alg\":\"ES256\",\"kid\":\"" + keyId + "\"}");
+        this.teamId = teamId;
+        this.refreshMillis = refreshMillis;
+    }
+
+    /**
+     * The cached token, signed again when it is due for refresh
+     */
+    public String get() {
+        Issued issued = current;
+        long now = System.currentTimeMillis();
+        if (issued == null || now - issued.issuedAt >= refreshMillis) {
+            synchronized (this) {
+                issued = current;
+                if (issued == null || now - issued.issuedAt >= refreshMillis) {
+                    issued = new Issued(sign(now), now);
+                    current = issued;
+                }
+            }
+        }
+        return issued.token;
+    }
+
+    /**
+     * Drop the cached token, e.g. after APNs answered ExpiredProviderToken
+     */
+    public synchronized void invalidate() {
+        current = null;
+    }
+
+    private String sign(long now) {
+        String claims = encode("{\"iss\":\"" + teamId + "\",\"iat\":" + now / 1000 + "}");
+        String unsigned = header + "." + claims;
+        try {
+            // JWS wants the raw r||s form, not DER
+            Signature signature = Signature.getInstance("SHA256withECDSAinP1363Format");
+            signature.initSign(signingKey);
+            signature.update(unsigned.getBytes(StandardCharsets.US_ASCII));
+            return unsigned + "." + ENCODER.encodeToString(signature.sign());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot sign APNs provider token", e);
+        }
+    }
+
+    private static String encode(String json) {
+        return ENCODER.encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,301 @@
+package com.example.passkit.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP/2 client for the Apple Push Notification service.
+ *
+ * A small pool of HttpClient instances each hold one long-lived connection
+ * to APNs, and requests are spread over them round robin. HTTP/2 multiplexes
+ * the requests sent on a connection as concurrent streams, so many pushes
+ * are in flight per connection; a semaphore bounds the total so a burst
+ * cannot queue without limit. Requests carry a cached ES256 provider token.
+ *
+ * Disabled unless passkit.apns.enabled is set.
+ */
+@Service
+public class ApnsClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(ApnsClient.class);
+
+    // Wallet passes are updated with an empty payload, the device then fetches the pass
+    private static final byte[] PASS_UPDATE_PAYLOAD = "{}".getBytes(StandardCharsets.UTF_8);
+
+    @Value("${passkit.apns.enabled:false}")
+    private boolean enabled;
+
+    @Value("${passkit.apns.url:https://api.push.apple.com}")
+    private String apnsUrl;
+
+    @Value("${passkit.apns.key-path:}")
+    private String keyPath;
+
+    @Value("${passkit.apns.key-id:}")
+    private String keyId;
+
+    @Value("${passkit.apns.team-id:${passkit.pass.teamIdentifier:}}")
+    private String teamId;
+
+    @Value("${passkit.apns.connections:4}")
+    private int connections;
+
+    @Value("${passkit.apns.max-in-flight:2000}")
+    private int maxInFlight;
+
+    @Value("${passkit.apns.request-timeout-ms:10000}")
+    private long requestTimeoutMillis;
+
+    @Value("${passkit.apns.token-refresh-minutes:50}")
+    private long tokenRefreshMinutes;
+
+    @Autowired
+    private PassJsonCodec passJsonCodec;
+
+    private HttpClient[] clients;
+    private final AtomicInteger nextClient = new AtomicInteger();
+    private Semaphore inFlight;
+    private ApnsAuthToken authToken;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong unregistered = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * The outcome of one push. Status 0 means no response was received.
+     */
+    public static final class PushResult {
+        private final String pushToken;
+        private final int status;
+        private final String reason;
+        private final String apnsId;
+
+        public PushResult(String pushToken, int status, String reason, String apnsId) {
+            this.pushToken = pushToken;
+            this.status = status;
+            this.reason = reason;
+            this.apnsId = apnsId;
+        }
+
+        public String getPushToken() {
+            return pushToken;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        public String getApnsId() {
+            return apnsId;
+        }
+
+        public boolean isAccepted() {
+            return status == 200;
+        }
+
+        /**
+         * The token is no longer valid for the topic and should be removed
+         */
+        public boolean isUnregistered() {
+            return status == 410;
+        }
+
+        public boolean isThrottled() {
+            return status == 429;
+        }
+
+        /**
+         * The token is not a token for this environment at all, for any topic
+         */
+        public boolean isBadDeviceToken() {
+            return status == 400 && "BadDeviceToken".equals(reason);
+        }
+
+        /**
+         * The token will never be accepted again: unregistered for the topic,
+         * or a bad device token
+         */
+        public boolean isDeadToken() {
+            return isUnregistered() || isBadDeviceToken();
+        }
+
+        /**
+         * The push may succeed if sent again later: throttled, APNs
+         * unavailable, a provider token that was just refreshed, or no
+         * response at all
+         */
+        public boolean isRetryable() {
+            if (status == 0) {
+                return !"ApnsDisabled".equals(reason) && !"Interrupted".equals(reason);
+            }
+            return status == 429 || status >= 500 || (status == 403 && "ExpiredProviderToken".equals(reason));
+        }
+    }
+
+    @PostConstruct
+    public void init() throws Exception {
+        if (!enabled) {
+            logger.info("APNs client disabled, pass updates will not be pushed");
+            return;
+        }
+
+        authToken = new ApnsAuthToken(loadSigningKey(), keyId, teamId,
+                Duration.ofMinutes(tokenRefreshMinutes).toMillis());
+
+        ExecutorService executor = Executors.newCachedThreadPool(new CustomizableThreadFactory("apns-"));
+        clients = new HttpClient[connections];
+        for (int i = 0; i < connections; i++) {
+            clients[i] = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .connectTimeout(Duration.ofMillis(requestTimeoutMillis))
+                    .executor(executor)
+                    .build();
+        }
+        inFlight = new Semaphore(maxInFlight);
+
+        logger.info("APNs client sending to {} over {} connection(s), up to {} push(es) in flight",
+                apnsUrl, connections, maxInFlight);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Tell the device behind a push token that a pass of the given type
+     * changed. Blocks only while the in-flight limit is reached.
+     */
+    public CompletableFuture<PushResult> sendPassUpdate(String pushToken, String passTypeId) {
+        if (!enabled) {
+            return CompletableFuture.completedFuture(new PushResult(pushToken, 0, "ApnsDisabled", null));
+        }
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(apnsUrl + "/3/device/" + pushToken))
+                .timeout(Duration.ofMillis(requestTimeoutMillis))
+                .header("authorization", "bearer " + authToken.get())
+                .header("apns-topic", passTypeId)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(PASS_UPDATE_PAYLOAD))
+                .build();
+
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.completedFuture(new PushResult(pushToken, 0, "Interrupted", null));
+        }
+
+        sent.incrementAndGet();
+        HttpClient client = clients[Math.floorMod(nextClient.getAndIncrement(), clients.length)];
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .handle((response, error) -> {
+                    inFlight.release();
+                    return error != null
+                            ? record(new PushResult(pushToken, 0, error.toString(), null))
+                            : record(toResult(pushToken, response));
+                });
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("sent", sent.get());
+        stats.put("accepted", accepted.get());
+        stats.put("unregistered", unregistered.get());
+        stats.put("throttled", throttled.get());
+        stats.put("failed", failed.get());
+        stats.put("inFlight", inFlight != null ? maxInFlight - inFlight.availablePermits() : 0);
+        return stats;
+    }
+
+    private PushResult toResult(String pushToken, HttpResponse<byte[]> response) {
+        String apnsId = response.headers().firstValue("apns-id").orElse(null);
+        String reason = null;
+        if (response.statusCode() != 200 && response.body().length > 0) {
+            try {
+                JsonNode body = passJsonCodec.readTree(new ByteArrayInputStream(response.body()));
+                reason = body.path("reason").asText(null);
+            } catch (Exception e) {
+                reason = new String(response.body(), StandardCharsets.UTF_8);
+            }
+        }
+        if ("ExpiredProviderToken".equals(reason)) {
+            authToken.invalidate();
+        }
+        return new PushResult(pushToken, response.statusCode(), reason, apnsId);
+    }
+
+    private PushResult record(PushResult result) {
+        if (result.isAccepted()) {
+            accepted.incrementAndGet();
+        } else if (result.isDeadToken()) {
+            unregistered.incrementAndGet();
+        } else if (result.isThrottled()) {
+            throttled.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+            logger.warn("APNs push to {}... failed: {} {}",
+                    result.getPushToken().substring(0, Math.min(10, result.getPushToken().length())),
+                    result.getStatus(), result.getReason());
+        }
+        return result;
+    }
+
+    /**
+     * Read the .p8 signing key downloaded from the developer account. Without
+     * one an ephemeral key is generated, which only a mock server accepts.
+     */
+    private PrivateKey loadSigningKey() throws Exception {
+        if (keyPath == null || keyPath.isEmpty()) {
+            logger.warn("No passkit.apns.key-path configured, signing provider tokens with an ephemeral key");
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+            return generator.generateKeyPair().getPrivate();
+        }
+
+        String pem = Files.readString(Paths.get(keyPath), StandardCharsets.US_ASCII);
+        String base64 = pem.replaceAll("-----[A-Z ]+-----", "").replaceAll("\\s", "");
+        try {
+            PKCS8EncodedKeySpec spec = new PKCS8EncodedKeySpec(Base64.getDecoder().decode(base64));
+            return KeyFactory.getInstance("EC").generatePrivate(spec);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new Exception("Invalid APNs signing key " + keyPath + ": " + e.getMessage(), e);
+        }
+    }
+}
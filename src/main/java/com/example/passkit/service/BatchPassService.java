@@ -0,0 +1,191 @@
+package com.example.passkit.service;
+
+import com.example.passkit.dto.PassRequest;
+import com.example.passkit.model.PassMetadata;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates many passes in parallel on a dedicated worker pool.
+ *
+ * Signing is CPU-bound, so the pool is sized to the number of cores by default.
+ * Requests are processed in chunks: each chunk is signed in parallel, its
+ * metadata is stored with one batched insert and its output is streamed before
+ * the next chunk starts. Memory therefore stays bounded by the chunk size, not
+ * by the size of the whole batch.
+ */
+@Service
+public class BatchPassService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchPassService.class);
+
+    @Autowired
+    private PassGeneratorService passGeneratorService;
+
+    @Autowired
+    private PassMetadataWriter passMetadataWriter;
+
+    @Autowired
+    private PassJsonCodec passJsonCodec;
+
+    @Autowired
+    private PassNegativeCache passNegativeCache;
+
+    @Value("${passkit.batch.threads:0}")
+    private int threads;
+
+    @Value("${passkit.batch.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${passkit.batch.max-size:50000}")
+    private int maxSize;
+
+    private ExecutorService executor;
+
+    public enum OutputFormat {
+        /**
+         * Zip archive with one {serialNumber}.pkpass entry per pass
+         */
+        ZIP,
+        /**
+         * One JSON line per generated pass
+         */
+        NDJSON
+    }
+
+    @PostConstruct
+    public void init() {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        executor = Executors.newFixedThreadPool(poolSize, new CustomizableThreadFactory("pass-batch-"));
+        logger.info("Batch pass generation pool started with {} thread(s)", poolSize);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Reject batches that are empty or larger than the configured maximum
+     */
+    public void validate(List<PassRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
+            throw new IllegalArgumentException("Batch must contain at least one pass request");
+        }
+        if (requests.size() > maxSize) {
+            throw new IllegalArgumentException("Batch size " + requests.size() + " exceeds maximum of " + maxSize);
+        }
+    }
+
+    /**
+     * Generate, persist and stream a batch of passes
+     */
+    public void generateBatch(List<PassRequest> requests, OutputFormat format, OutputStream out) throws Exception {
+        long start = System.currentTimeMillis();
+        List<String> serialNumbers = passGeneratorService.allocateSerialNumbers(requests.size());
+
+        ZipOutputStream zos = format == OutputFormat.ZIP ? new ZipOutputStream(out) : null;
+
+        for (int from = 0; from < requests.size(); from += chunkSize) {
+            int to = Math.min(from + chunkSize, requests.size());
+            List<PassGeneratorService.PreparedPass> chunk = generateChunk(
+                    requests.subList(from, to), serialNumbers.subList(from, to));
+
+            List<PassMetadata> metadata = new ArrayList<>(chunk.size());
+            for (PassGeneratorService.PreparedPass pass : chunk) {
+                metadata.add(pass.getMetadata());
+            }
+            passMetadataWriter.insertAll(metadata);
+            for (PassMetadata pass : metadata) {
+                passNegativeCache.invalidate(pass.getSerialNumber());
+            }
+
+            if (zos != null) {
+                writeZipEntries(zos, chunk);
+                zos.flush();
+            } else {
+                writeNdjsonLines(out, chunk);
+                out.flush();
+            }
+        }
+
+        if (zos != null) {
+            zos.finish();
+        }
+        out.flush();
+
+        logger.info("Batch of {} pass(es) generated in {} ms", requests.size(), System.currentTimeMillis() - start);
+    }
+
+    private List<PassGeneratorService.PreparedPass> generateChunk(List<PassRequest> requests,
+            List<String> serialNumbers) throws Exception {
+        List<Future<PassGeneratorService.PreparedPass>> futures = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            PassRequest request = requests.get(i);
+            String serialNumber = serialNumbers.get(i);
+            futures.add(executor.submit(() -> passGeneratorService.preparePass(serialNumber, request)));
+        }
+
+        List<PassGeneratorService.PreparedPass> passes = new ArrayList<>(futures.size());
+        try {
+            for (Future<PassGeneratorService.PreparedPass> future : futures) {
+                passes.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            throw new Exception("Batch pass generation failed: " + e.getCause().getMessage(), e.getCause());
+        }
+        return passes;
+    }
+
+    private void writeZipEntries(ZipOutputStream zos, List<PassGeneratorService.PreparedPass> passes)
+            throws Exception {
+        for (PassGeneratorService.PreparedPass pass : passes) {
+            PkpassArchive archive = pass.getArchive();
+
+            // .pkpass files are already compressed, store them as-is
+            CRC32 crc = new CRC32();
+            archive.writeTo(new CheckedOutputStream(OutputStream.nullOutputStream(), crc));
+            ZipEntry entry = new ZipEntry(pass.getMetadata().getSerialNumber() + ".pkpass");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(archive.getLength());
+            entry.setCompressedSize(archive.getLength());
+            entry.setCrc(crc.getValue());
+
+            zos.putNextEntry(entry);
+            archive.writeTo(zos);
+            zos.closeEntry();
+        }
+    }
+
+    private void writeNdjsonLines(OutputStream out, List<PassGeneratorService.PreparedPass> passes)
+            throws Exception {
+        for (PassGeneratorService.PreparedPass pass : passes) {
+            Map<String, Object> line = new LinkedHashMap<>();
+            line.put("serialNumber", pass.getMetadata().getSerialNumber());
+            line.put("passTypeIdentifier", pass.getMetadata().getPassTypeId());
+            line.put("size", pass.getArchive().getLength());
+            passJsonCodec.writeLine(line, out);
+        }
+    }
+}
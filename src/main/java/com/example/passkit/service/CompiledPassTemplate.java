@@ -0,0 +1,138 @@
+package com.example.passkit.service;
+
+import com.example.passkit.model.PassMetadata.PassStyle;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A pass.json template compiled into a pre-serialized skeleton.
+ *
+ * The skeleton is split around its placeholder slots, so rendering a pass only
+ * appends the fixed text segments and the escaped slot values: no object tree
+ * is built and nothing is serialized per pass. A slot is a JSON string value
+ * of the form {{name}} (rendered as a string) or {{name:number}} (rendered as
+ * a bare number). Instances are immutable and safe to share between threads.
+ */
+public final class CompiledPassTemplate {
+
+    /**
+     * Matches a placeholder in the serialized skeleton, including its quotes
+     */
+    static final Pattern SLOT_PATTERN = Pattern.compile("\"\\{\\{([A-Za-z][A-Za-z0-9_]*)(?::(string|number))?\\}\\}\"");
+
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+    public enum SlotType {
+        STRING,
+        NUMBER
+    }
+
+    private final String name;
+    private final PassStyle passStyle;
+    private final List<String> aliases;
+    private final String[] segments;
+    private final String[] slotNames;
+    private final SlotType[] slotTypes;
+    private final int fixedLength;
+
+    private CompiledPassTemplate(String name, PassStyle passStyle, List<String> aliases, String[] segments,
+            String[] slotNames, SlotType[] slotTypes) {
+        this.name = name;
+        this.passStyle = passStyle;
+        this.aliases = Collections.unmodifiableList(new ArrayList<>(aliases));
+        this.segments = segments;
+        this.slotNames = slotNames;
+        this.slotTypes = slotTypes;
+
+        int length = 0;
+        for (String segment : segments) {
+            length += segment.length();
+        }
+        this.fixedLength = length;
+    }
+
+    /**
+     * Split a serialized pass.json skeleton into fixed segments and slots
+     */
+    static CompiledPassTemplate compile(String name, PassStyle passStyle, List<String> aliases, String skeleton) {
+        List<String> segments = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<SlotType> types = new ArrayList<>();
+
+        Matcher matcher = SLOT_PATTERN.matcher(skeleton);
+        int position = 0;
+        while (matcher.find()) {
+            segments.add(skeleton.substring(position, matcher.start()));
+            names.add(matcher.group(1));
+            types.add("number".equals(matcher.group(2)) ? SlotType.NUMBER : SlotType.STRING);
+            position = matcher.end();
+        }
+        segments.add(skeleton.substring(position));
+
+        return new CompiledPassTemplate(name, passStyle, aliases, segments.toArray(new String[0]),
+                names.toArray(new String[0]), types.toArray(new SlotType[0]));
+    }
+
+    /**
+     * Render pass.json by filling every slot from the given values
+     */
+    public String render(Map<String, String> values) {
+        StringBuilder out = new StringBuilder(fixedLength + slotNames.length * 32);
+        JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+
+        for (int i = 0; i < slotNames.length; i++) {
+            out.append(segments[i]);
+
+            String value = values.get(slotNames[i]);
+            if (value == null) {
+                throw new IllegalArgumentException(
+                        "Missing value for slot '" + slotNames[i] + "' of template '" + name + "'");
+            }
+
+            if (slotTypes[i] == SlotType.NUMBER) {
+                if (!NUMBER_PATTERN.matcher(value).matches()) {
+                    throw new IllegalArgumentException(
+                            "Slot '" + slotNames[i] + "' of template '" + name + "' expects a number: " + value);
+                }
+                out.append(value);
+            } else {
+                out.append('"');
+                encoder.quoteAsString(value, out);
+                out.append('"');
+            }
+        }
+        out.append(segments[segments.length - 1]);
+
+        return out.toString();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public PassStyle getPassStyle() {
+        return passStyle;
+    }
+
+    public List<String> getAliases() {
+        return aliases;
+    }
+
+    /**
+     * Slot names and their types, in order of first appearance
+     */
+    public Map<String, SlotType> getSlots() {
+        Map<String, SlotType> slots = new LinkedHashMap<>();
+        for (int i = 0; i < slotNames.length; i++) {
+            slots.putIfAbsent(slotNames[i], slotTypes[i]);
+        }
+        return slots;
+    }
+}
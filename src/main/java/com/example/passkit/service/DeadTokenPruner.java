@@ -0,0 +1,158 @@
+package com.example.passkit.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Removes registrations whose push token APNs rejected as dead, so later
+ * fan-outs stop paying for devices that deleted the pass.
+ *
+ * A device uses one push token for all its pass types, and 410 Unregistered
+ * only means the token is dead for the topic (pass type) it was sent to, so
+ * only that pass type's registrations go. BadDeviceToken means the token is
+ * no token at all and removes it everywhere. Tokens are collected as
+ * responses arrive and deleted in batches. Each keeps the time its push was
+ * sent: a registration made or updated after that is a new registration
+ * and is kept.
+ */
+@Service
+public class DeadTokenPruner {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeadTokenPruner.class);
+
+    @Autowired
+    private PassRegistrationService passRegistrationService;
+
+    @Value("${passkit.push.prune.flush-interval-ms:1000}")
+    private long flushIntervalMillis;
+
+    @Value("${passkit.push.prune.flush-threshold:1000}")
+    private int flushThreshold;
+
+    private ScheduledExecutorService flusher;
+
+    // (push token, pass type or all) to the latest report for it
+    private final ConcurrentHashMap<String, DeadToken> dead = new ConcurrentHashMap<>();
+
+    private final AtomicLong reported = new AtomicLong();
+    private final AtomicLong pruned = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+
+    /**
+     * A push token to remove, for one pass type or, with a null pass type,
+     * for all of them
+     */
+    public static final class DeadToken {
+        private final String pushToken;
+        private final String passTypeId;
+        private final long sentAt;
+
+        public DeadToken(String pushToken, String passTypeId, long sentAt) {
+            this.pushToken = pushToken;
+            this.passTypeId = passTypeId;
+            this.sentAt = sentAt;
+        }
+
+        public String getPushToken() {
+            return pushToken;
+        }
+
+        public String getPassTypeId() {
+            return passTypeId;
+        }
+
+        public long getSentAt() {
+            return sentAt;
+        }
+
+        private String key() {
+            return passTypeId != null ? pushToken + '\n' + passTypeId : pushToken;
+        }
+
+        private static DeadToken latest(DeadToken a, DeadToken b) {
+            return a.sentAt >= b.sentAt ? a : b;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        flusher = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("token-prune-"));
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Record that APNs rejected a push token sent to at sentAt, for the given
+     * pass type, or for all pass types when passTypeId is null
+     */
+    public void report(String pushToken, String passTypeId, long sentAt) {
+        reported.incrementAndGet();
+        DeadToken token = new DeadToken(pushToken, passTypeId, sentAt);
+        dead.merge(token.key(), token, DeadToken::latest);
+        if (dead.size() >= flushThreshold) {
+            flusher.execute(this::flush);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", dead.size());
+        stats.put("reported", reported.get());
+        stats.put("pruned", pruned.get());
+        stats.put("flushes", flushes.get());
+        stats.put("failedFlushes", failedFlushes.get());
+        return stats;
+    }
+
+    private synchronized void flush() {
+        if (dead.isEmpty()) {
+            return;
+        }
+        List<DeadToken> batch = new ArrayList<>();
+        for (String key : dead.keySet()) {
+            DeadToken token = dead.remove(key);
+            if (token != null) {
+                batch.add(token);
+            }
+        }
+
+        try {
+            int deleted = passRegistrationService.removeDeadPushTokens(batch);
+            pruned.addAndGet(deleted);
+            flushes.incrementAndGet();
+            logger.info("Pruned {} registration(s) for {} dead push token(s)", deleted, batch.size());
+        } catch (Exception e) {
+            // Put them back for the next flush, unless reported again meanwhile
+            batch.forEach(token -> dead.merge(token.key(), token, DeadToken::latest));
+            failedFlushes.incrementAndGet();
+            logger.error("Failed to prune {} dead push token(s): {}", batch.size(), e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.passkit.service;
+
+import com.example.passkit.repository.DeviceLogBatchRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffer for the messages devices send to /v1/log.
+ *
+ * Request threads only offer messages to a bounded ring buffer and never
+ * wait: when it is full the excess is dropped and counted. A single writer
+ * thread drains the buffer, folds identical messages of the current window
+ * into one count, and inserts the window's aggregates in one batch when the
+ * window closes.
+ */
+@Service
+public class DeviceLogSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeviceLogSink.class);
+
+    @Autowired
+    private DeviceLogBatchRepository deviceLogBatchRepository;
+
+    @Value("${passkit.device-log.capacity:10000}")
+    private int capacity;
+
+    @Value("${passkit.device-log.window-ms:10000}")
+    private long windowMillis;
+
+    @Value("${passkit.device-log.drain-interval-ms:250}")
+    private long drainIntervalMillis;
+
+    @Value("${passkit.device-log.max-distinct:1000}")
+    private int maxDistinct;
+
+    @Value("${passkit.device-log.max-message-length:1000}")
+    private int maxMessageLength;
+
+    @Value("${passkit.device-log.jdbc-batch-size:500}")
+    private int jdbcBatchSize;
+
+    private ArrayBlockingQueue<LogLine> buffer;
+    private ScheduledExecutorService writer;
+
+    // Only touched by the writer thread
+    private final Map<String, AggregatedMessage> window = new LinkedHashMap<>();
+    private final List<LogLine> drained = new ArrayList<>();
+    private long windowStart;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong storedRows = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        buffer = new ArrayBlockingQueue<>(capacity);
+        writer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("device-log-"));
+        writer.scheduleWithFixedDelay(this::drain, drainIntervalMillis, drainIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drainBuffer();
+        writeWindow();
+    }
+
+    /**
+     * Queue messages without blocking
+     *
+     * @return the number of messages that did not fit and were dropped
+     */
+    public int accept(List<String> messages) {
+        long now = System.currentTimeMillis();
+        int rejected = 0;
+        for (String message : messages) {
+            if (message == null || message.isEmpty()) {
+                continue;
+            }
+            if (message.length() > maxMessageLength) {
+                message = message.substring(0, maxMessageLength);
+            }
+            if (buffer.offer(new LogLine(message, now))) {
+                accepted.incrementAndGet();
+            } else {
+                rejected++;
+            }
+        }
+        if (rejected > 0) {
+            dropped.addAndGet(rejected);
+        }
+        return rejected;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("buffered", buffer.size());
+        stats.put("capacity", capacity);
+        stats.put("accepted", accepted.get());
+        stats.put("dropped", dropped.get());
+        stats.put("storedRows", storedRows.get());
+        stats.put("failedWrites", failedWrites.get());
+        return stats;
+    }
+
+    private void drain() {
+        try {
+            drainBuffer();
+            long now = System.currentTimeMillis();
+            if (!window.isEmpty() && (now - windowStart >= windowMillis || window.size() >= maxDistinct)) {
+                writeWindow();
+            }
+        } catch (Exception e) {
+            logger.error("Device log writer failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private void drainBuffer() {
+        buffer.drainTo(drained);
+        for (LogLine line : drained) {
+            if (window.isEmpty()) {
+                windowStart = line.receivedAt;
+            }
+            AggregatedMessage aggregate = window.get(line.message);
+            if (aggregate == null) {
+                window.put(line.message, new AggregatedMessage(line.message, line.receivedAt));
+            } else {
+                aggregate.add(line.receivedAt);
+            }
+        }
+        drained.clear();
+    }
+
+    private void writeWindow() {
+        if (window.isEmpty()) {
+            return;
+        }
+        try {
+            deviceLogBatchRepository.insertAll(window.values(), jdbcBatchSize);
+            storedRows.addAndGet(window.size());
+        } catch (Exception e) {
+            // Device logs are diagnostics; losing a window is better than growing without bound
+            failedWrites.incrementAndGet();
+            logger.error("Failed to store {} device log message(s): {}", window.size(), e.getMessage());
+        }
+        window.clear();
+    }
+
+    private static final class LogLine {
+        private final String message;
+        private final long receivedAt;
+
+        private LogLine(String message, long receivedAt) {
+            this.message = message;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+    /**
+     * Identical messages received within one window
+     */
+    public static final class AggregatedMessage {
+        private final String message;
+        private int occurrences;
+        private final long firstSeen;
+        private long lastSeen;
+
+        private AggregatedMessage(String message, long receivedAt) {
+            this.message = message;
+            this.occurrences = 1;
+            this.firstSeen = receivedAt;
+            this.lastSeen = receivedAt;
+        }
+
+        private void add(long receivedAt) {
+            occurrences++;
+            lastSeen = Math.max(lastSeen, receivedAt);
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public int getOccurrences() {
+            return occurrences;
+        }
+
+        public long getFirstSeen() {
+            return firstSeen;
+        }
+
+        public long getLastSeen() {
+            return lastSeen;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.passkit.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of signed .pkpass archives.
+ *
+ * Entries are keyed on (passTypeId, serialNumber, version): a lookup only hits
+ * when the stored artifact was built from exactly the requested version, so a
+ * version bump can never serve a stale pass. Writers still invalidate
+ * explicitly to release the memory early. The bound is the total archive size
+ * in bytes.
+ */
+@Service
+public class PassArtifactCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(PassArtifactCache.class);
+
+    @Value("${passkit.cache.artifacts.max-bytes:67108864}")
+    private long maxBytes;
+
+    // Serial numbers are unique, so at most one version is kept per serial
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Get the cached archive for the given pass version, or null on a miss
+     */
+    public PkpassArchive get(String passTypeId, String serialNumber, int version) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(serialNumber);
+        }
+
+        if (entry != null && entry.version == version && entry.passTypeId.equals(passTypeId)) {
+            hits.incrementAndGet();
+            return entry.archive;
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Store the archive built for the given pass version
+     */
+    public void put(String passTypeId, String serialNumber, int version, PkpassArchive archive) {
+        if (archive.getLength() > maxBytes) {
+            logger.debug("Pass {} too large to cache ({} bytes)", serialNumber, archive.getLength());
+            return;
+        }
+
+        synchronized (this) {
+            Entry previous = entries.get(serialNumber);
+            if (previous != null && previous.version > version) {
+                // A newer version was cached while this one was being built
+                return;
+            }
+
+            Entry old = entries.put(serialNumber, new Entry(passTypeId, version, archive));
+            if (old != null) {
+                currentBytes -= old.archive.getLength();
+            }
+            currentBytes += archive.getLength();
+
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (currentBytes > maxBytes && it.hasNext()) {
+                Entry eldest = it.next().getValue();
+                it.remove();
+                currentBytes -= eldest.archive.getLength();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drop any cached version of a pass
+     */
+    public synchronized void invalidate(String serialNumber) {
+        Entry old = entries.remove(serialNumber);
+        if (old != null) {
+            currentBytes -= old.archive.getLength();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        long total = hitCount + missCount;
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("entries", entries.size());
+            stats.put("bytes", currentBytes);
+        }
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("evictions", evictions.get());
+        stats.put("hitRatio", total == 0 ? 0.0 : (double) hitCount / total);
+        return stats;
+    }
+
+    private static final class Entry {
+        private final String passTypeId;
+        private final int version;
+        private final PkpassArchive archive;
+
+        private Entry(String passTypeId, int version, PkpassArchive archive) {
+            this.passTypeId = passTypeId;
+            this.version = version;
+            this.archive = archive;
+        }
+    }
+}
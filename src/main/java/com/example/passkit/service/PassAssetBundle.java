@@ -0,0 +1,65 @@
+package com.example.passkit.service;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable snapshot of the static files bundled into every pass (icons).
+ * Each asset carries its bytes together with the SHA-1 digest needed for
+ * manifest.json and the CRC-32 needed for the zip entry, so neither has to be
+ * recomputed per pass.
+ */
+public final class PassAssetBundle {
+
+    private final List<Asset> assets;
+    private final long loadedAt;
+
+    public PassAssetBundle(List<Asset> assets, long loadedAt) {
+        this.assets = Collections.unmodifiableList(assets);
+        this.loadedAt = loadedAt;
+    }
+
+    public List<Asset> getAssets() {
+        return assets;
+    }
+
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    /**
+     * A single file inside the .pkpass archive
+     */
+    public static final class Asset {
+        private final String name;
+        private final byte[] data;
+        private final String sha1Hex;
+        private final long crc32;
+
+        public Asset(String name, byte[] data, String sha1Hex, long crc32) {
+            this.name = name;
+            this.data = data;
+            this.sha1Hex = sha1Hex;
+            this.crc32 = crc32;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Shared buffer - callers must not modify it
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        public String getSha1Hex() {
+            return sha1Hex;
+        }
+
+        public long getCrc32() {
+            return crc32;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.passkit.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Service;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Loads the static pass assets once at startup and hands the same immutable
+ * {@link PassAssetBundle} to every pass generation. Call {@link #reload()} after
+ * the assets have changed on the classpath.
+ */
+@Service
+public class PassAssetService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PassAssetService.class);
+
+    private static final List<String> ASSET_NAMES = List.of("icon.png", "icon@2x.png", "icon@3x.png");
+
+    @Value("${passkit.assets.path:passkit}")
+    private String assetsPath;
+
+    private volatile PassAssetBundle bundle;
+
+    @PostConstruct
+    public void init() {
+        reload();
+    }
+
+    /**
+     * Current asset bundle
+     */
+    public PassAssetBundle getBundle() {
+        return bundle;
+    }
+
+    /**
+     * Re-read all assets and atomically swap in the new bundle.
+     * Requests already in flight keep using the bundle they started with.
+     */
+    public synchronized PassAssetBundle reload() {
+        List<PassAssetBundle.Asset> assets = new ArrayList<>();
+
+        for (String name : ASSET_NAMES) {
+            String path = assetsPath + "/" + name;
+            try {
+                byte[] data = readResource(path);
+                assets.add(new PassAssetBundle.Asset(name, data, sha1Hex(data), crc32(data)));
+                logger.debug("Loaded pass asset {} ({} bytes)", name, data.length);
+            } catch (Exception e) {
+                logger.warn("Could not load pass asset {}: {}", name, e.getMessage());
+            }
+        }
+
+        bundle = new PassAssetBundle(assets, System.currentTimeMillis());
+        logger.info("Pass asset bundle loaded with {} asset(s)", assets.size());
+        return bundle;
+    }
+
+    private byte[] readResource(String path) throws IOException {
+        ClassPathResource res = new ClassPathResource(path);
+        if (!res.exists()) {
+            throw new FileNotFoundException("Resource not found: " + path + " (checked classpath)");
+        }
+        try (InputStream in = res.getInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private String sha1Hex(byte[] data) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(data));
+    }
+
+    private long crc32(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.passkit.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * Authentication tokens for the Wallet web service.
+ *
+ * With passkit.auth.hmac-key set, every pass gets its own token: the
+ * HMAC-SHA256 of its pass type and serial number under the server key.
+ * Validating a request recomputes the token, so no storage is read, and
+ * compares it in constant time. During key rotation the old key is kept as
+ * passkit.auth.hmac-previous-key, so passes issued before the rotation keep
+ * working until they are updated.
+ *
+ * Without an HMAC key all passes share passkit.auth.token, as before.
+ */
+@Service
+public class PassAuthTokenService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PassAuthTokenService.class);
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final String DEV_BYPASS = "dev-bypass";
+    private static final String SCHEME = "ApplePass ";
+
+    @Value("${passkit.auth.hmac-key:}")
+    private String hmacKey;
+
+    @Value("${passkit.auth.hmac-previous-key:}")
+    private String previousHmacKey;
+
+    @Value("${passkit.auth.token:}")
+    private String sharedToken;
+
+    // Mac instances are not thread safe, so each thread keeps its own
+    private ThreadLocal<Mac> currentMac;
+    private ThreadLocal<Mac> previousMac;
+
+    @PostConstruct
+    public void init() throws GeneralSecurityException {
+        if (!hmacKey.isEmpty()) {
+            currentMac = macFor(hmacKey);
+            logger.info("Issuing per-pass authentication tokens{}",
+                    previousHmacKey.isEmpty() ? "" : ", accepting the previous key during rotation");
+        }
+        if (!previousHmacKey.isEmpty()) {
+            previousMac = macFor(previousHmacKey);
+        }
+    }
+
+    /**
+     * Whether each pass has its own token
+     */
+    public boolean isPerPass() {
+        return currentMac != null;
+    }
+
+    /**
+     * The authenticationToken to embed in a pass
+     */
+    public String tokenFor(String passTypeId, String serialNumber) {
+        if (!isPerPass()) {
+            return sharedToken;
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sign(currentMac, passTypeId, serialNumber));
+    }
+
+    /**
+     * Check the Authorization header ("ApplePass token") of a request for a
+     * pass
+     */
+    public boolean isValid(String passTypeId, String serialNumber, String authHeader) {
+        if (!isPerPass()) {
+            return isValidSharedToken(authHeader);
+        }
+
+        byte[] presented = decode(authHeader);
+        if (presented == null) {
+            return false;
+        }
+        if (MessageDigest.isEqual(presented, sign(currentMac, passTypeId, serialNumber))) {
+            return true;
+        }
+        return previousMac != null
+                && MessageDigest.isEqual(presented, sign(previousMac, passTypeId, serialNumber));
+    }
+
+    /**
+     * Check a request that is not about one pass, such as listing the
+     * updated serial numbers of a device. Wallet sends no Authorization
+     * header there, so per-pass tokens cannot apply; with a shared token the
+     * request is checked against it as before.
+     */
+    public boolean isValidForDevice(String authHeader) {
+        return isPerPass() || isValidSharedToken(authHeader);
+    }
+
+    private boolean isValidSharedToken(String authHeader) {
+        if (sharedToken.isEmpty()) {
+            // If no token is configured, deny requests by default for security
+            logger.error("SECURITY WARNING: No authentication token configured. Denying request.");
+            logger.error("To allow development access, set passkit.auth.token=dev-bypass in application.properties");
+            return false;
+        }
+
+        // Allow bypass in development mode with special token
+        if (DEV_BYPASS.equals(sharedToken)) {
+            logger.warn("Development mode: Authentication bypassed");
+            return true;
+        }
+
+        String token = tokenOf(authHeader);
+        return token != null && MessageDigest.isEqual(
+                token.getBytes(StandardCharsets.UTF_8), sharedToken.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String tokenOf(String authHeader) {
+        if (authHeader == null || authHeader.isEmpty()) {
+            return null;
+        }
+        // Expected format: "ApplePass <token>"
+        return authHeader.startsWith(SCHEME) ? authHeader.substring(SCHEME.length()).trim() : authHeader.trim();
+    }
+
+    private static byte[] decode(String authHeader) {
+        String token = tokenOf(authHeader);
+        if (token == null) {
+            return null;
+        }
+        try {
+            return Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static byte[] sign(ThreadLocal<Mac> mac, String passTypeId, String serialNumber) {
+        Mac instance = mac.get();
+        instance.update(passTypeId.getBytes(StandardCharsets.UTF_8));
+        // Separator so that (a, bc) and (ab, c) never sign the same bytes
+        instance.update((byte) 0);
+        return instance.doFinal(serialNumber.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ThreadLocal<Mac> macFor(String key) throws GeneralSecurityException {
+        SecretKeySpec spec = new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        // Fail at startup rather than on the first request
+        Mac.getInstance(ALGORITHM).init(spec);
+        return ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(spec);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Cannot initialize " + ALGORITHM, e);
+            }
+        });
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.passkit.service;
+
+import com.example.passkit.model.PassMetadata.PassStyle;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A parsed pass.json with an index from field key to the field object, so
+ * updating a field value is a single lookup instead of a scan over every field
+ * category. Field keys are unique within a pass, as Wallet requires; if a
+ * document repeats a key, the first occurrence is indexed.
+ *
+ * Not thread safe: a document is parsed, patched and serialized by one request.
+ */
+public final class PassDocument {
+
+    private static final String[] FIELD_CATEGORIES = {
+            "headerFields", "primaryFields", "secondaryFields", "auxiliaryFields", "backFields"
+    };
+
+    private final ObjectNode root;
+    private final PassStyle style;
+    private final Map<String, ObjectNode> fields = new HashMap<>();
+
+    private PassDocument(ObjectNode root, PassStyle style) {
+        this.root = root;
+        this.style = style;
+
+        JsonNode structure = root.get(style.getJsonKey());
+        if (structure != null) {
+            for (String category : FIELD_CATEGORIES) {
+                for (JsonNode field : structure.path(category)) {
+                    JsonNode key = field.get("key");
+                    if (field.isObject() && key != null) {
+                        fields.putIfAbsent(key.asText(), (ObjectNode) field);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Wrap a parsed pass.json. When the style is not known it is taken from
+     * the style key present in the document.
+     */
+    public static PassDocument of(ObjectNode root, PassStyle style) {
+        return new PassDocument(root, style != null ? style : detectStyle(root));
+    }
+
+    private static PassStyle detectStyle(ObjectNode root) {
+        for (PassStyle style : PassStyle.values()) {
+            if (root.has(style.getJsonKey())) {
+                return style;
+            }
+        }
+        return PassStyle.GENERIC;
+    }
+
+    public PassStyle getStyle() {
+        return style;
+    }
+
+    public ObjectNode getRoot() {
+        return root;
+    }
+
+    public boolean hasField(String key) {
+        return fields.containsKey(key);
+    }
+
+    /**
+     * Set the value of the field with the given key
+     *
+     * @return false if the pass has no such field
+     */
+    public boolean setFieldValue(String key, String value) {
+        ObjectNode field = fields.get(key);
+        if (field == null) {
+            return false;
+        }
+        field.put("value", value);
+        return true;
+    }
+}
@@ -1,26 +1,16 @@
 package com.example.passkit.service;
 
 import com.example.passkit.model.PassMetadata;
+import com.example.passkit.repository.PassHeader;
 import com.example.passkit.repository.PassMetadataRepository;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.passkit.repository.StoredPassData;
 import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
-import org.bouncycastle.cert.jcajce.JcaCertStore;
-import org.bouncycastle.cms.CMSProcessableByteArray;
-import org.bouncycastle.cms.CMSSignedData;
-import org.bouncycastle.cms.CMSSignedDataGenerator;
-import org.bouncycastle.cms.CMSTypedData;
-import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.openssl.PEMParser;
 import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
-import org.bouncycastle.operator.ContentSigner;
-import org.bouncycastle.operator.DigestCalculatorProvider;
-import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
-import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
-import org.bouncycastle.util.Store;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
@@ -36,8 +26,6 @@ import java.security.Security;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.*;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 @Service
 public class PassGeneratorService {
@@ -65,37 +53,77 @@ public class PassGeneratorService {
     @Value("${passkit.webservice.url:}")
     private String webServiceURL;
 
-    @Value("${passkit.auth.token:}")
-    private String authenticationToken;
-
     @Autowired
     private PassMetadataRepository passMetadataRepository;
 
     @Autowired
-    private APNsService apnsService;
+    private PassMetadataWriter passMetadataWriter;
+
+    @Autowired
+    private PassAssetService passAssetService;
+
+    @Autowired
+    private PassArtifactCache passArtifactCache;
+
+    @Autowired
+    private PassNegativeCache passNegativeCache;
+
+    @Autowired
+    private PassAuthTokenService passAuthTokenService;
+
+    @Autowired
+    private PkpassWriter pkpassWriter;
+
+    @Autowired
+    private SerialNumberAllocator serialNumberAllocator;
+
+    @Autowired
+    private PassTemplateService passTemplateService;
+
+    @Autowired
+    private PassJsonCodec passJsonCodec;
 
     private PrivateKey privateKey;
     private X509Certificate passCertificate;
     private X509Certificate wwdrCertificate;
 
+    // Built once per certificate set and shared by all request threads
+    private volatile PassSigningContext signingContext;
+
+    // Concurrent fetches of the same (serial, version) that missed the cache
+    private final SingleFlight<String, PkpassArchive> passBuilds = new SingleFlight<>();
+
     @PostConstruct
     public void init() {
         Security.addProvider(new BouncyCastleProvider());
-        // Certificates will be loaded when needed, or can be preloaded here
-        // For now, we'll load them on demand to handle missing cert files gracefully
+        // Preload certificates so the first request does not pay for it.
+        // Missing cert files are tolerated here and retried on demand.
+        try {
+            getSigningContext();
+        } catch (Exception e) {
+            logger.warn("Certificates not loaded at startup, will retry on first pass: {}", e.getMessage());
+        }
     }
 
     public static class PassGenerationResult {
-        private final byte[] data;
+        private final PkpassArchive archive;
         private final String serialNumber;
 
-        public PassGenerationResult(byte[] data, String serialNumber) {
-            this.data = data;
+        public PassGenerationResult(PkpassArchive archive, String serialNumber) {
+            this.archive = archive;
             this.serialNumber = serialNumber;
         }
 
+        public PkpassArchive getArchive() {
+            return archive;
+        }
+
+        /**
+         * Copy of the archive bytes. Send {@link #getArchive()} to clients
+         * instead, it is written without the copy.
+         */
         public byte[] getData() {
-            return data;
+            return archive.toByteArray();
         }
 
         public String getSerialNumber() {
@@ -103,6 +131,64 @@ public class PassGeneratorService {
         }
     }
 
+    /**
+     * A signed pass whose metadata has not been persisted yet
+     */
+    public static class PreparedPass {
+        private final PassMetadata metadata;
+        private final PkpassArchive archive;
+
+        public PreparedPass(PassMetadata metadata, PkpassArchive archive) {
+            this.metadata = metadata;
+            this.archive = archive;
+        }
+
+        public PassMetadata getMetadata() {
+            return metadata;
+        }
+
+        public PkpassArchive getArchive() {
+            return archive;
+        }
+    }
+
+    /**
+     * Outcome of looking up an existing pass
+     */
+    public static class PassLookup {
+        public enum Status {
+            FOUND,
+            REVOKED,
+            ABSENT
+        }
+
+        private static final PassLookup REVOKED = new PassLookup(Status.REVOKED, null);
+        private static final PassLookup ABSENT = new PassLookup(Status.ABSENT, null);
+
+        private final Status status;
+        private final PassGenerationResult result;
+
+        private PassLookup(Status status, PassGenerationResult result) {
+            this.status = status;
+            this.result = result;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public boolean isFound() {
+            return status == Status.FOUND;
+        }
+
+        /**
+         * The signed pass, only for FOUND
+         */
+        public PassGenerationResult getResult() {
+            return result;
+        }
+    }
+
     public PassGenerationResult generatePass() throws Exception {
         return generatePass(null, (com.example.passkit.dto.PassRequest) null);
     }
@@ -112,20 +198,54 @@ public class PassGeneratorService {
     }
 
     /**
-     * Generate a pass with custom configuration
+     * Generate a pass from the template registered for the given type code
      */
+    public PassGenerationResult generatePass(String serialNumber, String type) throws Exception {
+        CompiledPassTemplate template = passTemplateService.resolve(type);
+
+        boolean allocated = serialNumber == null;
+        if (allocated) {
+            serialNumber = serialNumberAllocator.allocate();
+        }
+
+        logger.info("Generating pass with serialNumber: {} from template '{}'", serialNumber, template.getName());
+
+        String passJsonString = template.render(templateValues(serialNumber));
+        return allocated
+                ? createAllocated(serialNumber, template.getPassStyle(), passJsonString)
+                : storeAndBuild(serialNumber, template.getPassStyle(), passJsonString);
+    }
+
     /**
-     * Generate a pass with custom configuration
+     * Serve the stored pass with this serial number, or create it from the
+     * template registered for the given type code if there is none. The
+     * insert decides whether the pass is new, not the possibly cached
+     * lookup, so an existing pass is never replaced by the template.
      */
-    public PassGenerationResult generatePass(String serialNumber, String type) throws Exception {
-        com.example.passkit.dto.PassRequest request = null;
+    public PassGenerationResult getOrCreatePass(String serialNumber, String type) throws Exception {
+        PassLookup lookup = lookupPass(serialNumber);
+        if (lookup.isFound()) {
+            return lookup.getResult();
+        }
 
-        // If type is provided, load static template data
-        if (type != null && !type.isEmpty()) {
-            request = getStaticPassRequest(type);
+        if (lookup.getStatus() == PassLookup.Status.ABSENT) {
+            CompiledPassTemplate template = passTemplateService.resolve(type);
+            try {
+                logger.info("Creating pass with serialNumber: {} from template '{}'", serialNumber, template.getName());
+                return createAndBuild(serialNumber, template.getPassStyle(),
+                        template.render(templateValues(serialNumber)));
+            } catch (DuplicateKeyException e) {
+                // The lookup was stale, or another request created the pass first
+                passNegativeCache.invalidate(serialNumber);
+                lookup = lookupPass(serialNumber);
+                if (lookup.isFound()) {
+                    return lookup.getResult();
+                }
+            }
         }
 
-        return generatePass(serialNumber, request);
+        // Revoked: reissue it from the template as the next version of the stored pass
+        return generatePass(serialNumber, type);
     }
 
     /**
@@ -135,7 +255,12 @@ public class PassGeneratorService {
         PassMetadata metadata = passMetadataRepository.findBySerialNumber(serialNumber)
                 .orElseThrow(() -> new Exception("Pass not found: " + serialNumber));
 
-        // Handle status update
+        if (metadata.getStatus() == PassMetadata.PassStatus.REVOKED) {
+            throw new Exception("Pass is revoked and cannot be updated.");
+        }
+
+        // Handle status update; it is saved below together with the patched pass,
+        // so one update takes one update tag and queues one push
         if (params.containsKey("status")) {
             String status = params.get("status");
             String newStatusLabel = "ACTIVE";
@@ -146,92 +271,58 @@ public class PassGeneratorService {
                 metadata.setStatus(PassMetadata.PassStatus.ACTIVE);
                 newStatusLabel = "ACTIVE";
             } else if ("inactive".equalsIgnoreCase(status) || "revoked".equalsIgnoreCase(status)) {
-                metadata.setStatus(PassMetadata.PassStatus.REVOKED);
-                newStatusLabel = "REVOKED";
+                // Rejected before anything is saved; revoking goes through revokePass
+                throw new Exception("Pass cannot be revoked through an update, revoke it instead.");
             }
-            passMetadataRepository.save(metadata);
             // Ensure the status parameter in the map is the descriptive label for injection
             params.put("status", newStatusLabel);
         }
 
-        if (metadata.getStatus() == PassMetadata.PassStatus.REVOKED) {
-            throw new Exception("Pass is revoked and cannot be updated.");
+        // Parse the stored pass and patch only the fields named in params
+        PassDocument document = passJsonCodec.readDocument(metadata.getPassData(), metadata.getPassStyle());
+        if (metadata.getPassStyle() == null) {
+            // Rows written before the style was stored
+            metadata.setPassStyle(document.getStyle());
         }
 
-        // Get existing pass json
-        String json = metadata.getPassData();
-        Map<String, Object> passJson = new ObjectMapper().readValue(json, Map.class);
-
-        // Determine type to know which structure to update
-        String type = detectTypeFromPassJson(json);
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            document.setFieldValue(param.getKey(), param.getValue());
+        }
 
-        // Update fields based on params
-        updatePassJsonFields(passJson, type, params);
+        // Reissue the token, so passes move to the current key as they are updated
+        if (document.getRoot().has("authenticationToken")) {
+            document.getRoot().put("authenticationToken",
+                    passAuthTokenService.tokenFor(metadata.getPassTypeId(), serialNumber));
+        }
 
         // Regenerate pass
-        String updatedJson = new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(passJson);
+        String updatedJson = passJsonCodec.writeString(document.getRoot());
         metadata.setPassData(updatedJson);
         metadata.incrementVersion();
-        passMetadataRepository.save(metadata);
-
-        // Create manifest and sign
-        Map<String, String> manifest = createManifest(updatedJson);
-        String manifestJsonString = new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(manifest);
-        byte[] signature = signManifest(manifestJsonString.getBytes(StandardCharsets.UTF_8));
-        byte[] pkpass = createPkpassZip(updatedJson, manifestJsonString, signature);
+        passMetadataWriter.saveAndNotify(metadata);
+        passArtifactCache.invalidate(serialNumber);
 
-        // Notify
-        apnsService.notifyPassUpdate(passTypeIdentifier, serialNumber);
+        // Create manifest, sign and zip
+        PkpassArchive pkpass = buildPkpass(updatedJson);
+        passArtifactCache.put(metadata.getPassTypeId(), serialNumber, metadata.getVersion(), pkpass);
 
         return new PassGenerationResult(pkpass, serialNumber);
     }
 
-    private void updatePassJsonFields(Map<String, Object> passJson, String type, Map<String, String> params) {
-        // Map type string to json key
-        String structureKey = "generic";
-        if ("BOARDING".equals(type))
-            structureKey = "boardingPass";
-        else if ("COUPON".equals(type))
-            structureKey = "coupon";
-        else if ("EVENT".equals(type))
-            structureKey = "eventTicket";
-        else if ("STORE".equals(type))
-            structureKey = "storeCard";
-
-        Map<String, Object> structure = (Map<String, Object>) passJson.get(structureKey);
-        if (structure == null)
-            return;
-
-        List<String> fieldCategories = Arrays.asList("primaryFields", "secondaryFields", "auxiliaryFields",
-                "backFields");
-
-        for (String category : fieldCategories) {
-            List<Map<String, Object>> fields = (List<Map<String, Object>>) structure.get(category);
-            if (fields != null) {
-                for (Map<String, Object> field : fields) {
-                    String key = (String) field.get("key");
-                    if (key != null && params.containsKey(key)) {
-                        field.put("value", params.get(key));
-                    }
-                }
-            }
-        }
-    }
-
     /**
      * Generate a pass with custom configuration
      */
     public PassGenerationResult generatePass(String serialNumber, com.example.passkit.dto.PassRequest request)
             throws Exception {
-        // Use provided serial number or generate new one
-        if (serialNumber == null) {
-            serialNumber = generate5DigitSerialNumber();
+        // Without a request the pass is built from the default template
+        if (request == null) {
+            return generatePass(serialNumber, (String) null);
         }
 
-        // If request is null and we don't have a type (called from legacy methods),
-        // create default generic
-        if (request == null) {
-            request = getStaticPassRequest("GENERIC");
+        // Use provided serial number or generate new one
+        boolean allocated = serialNumber == null;
+        if (allocated) {
+            serialNumber = serialNumberAllocator.allocate();
         }
 
         logger.info("Generating pass with serialNumber: {}, passTypeIdentifier: {}, teamIdentifier: {}",
@@ -239,134 +330,135 @@ public class PassGeneratorService {
 
         // Create pass.json
         Map<String, Object> passJson = createPassJson(serialNumber, request);
-        String passJsonString = new ObjectMapper().writerWithDefaultPrettyPrinter()
-                .writeValueAsString(passJson);
+        String passJsonString = passJsonCodec.writeString(passJson);
 
         logger.debug("Created pass.json with identifiers - passTypeIdentifier: {}, teamIdentifier: {}",
                 passTypeIdentifier, teamIdentifier);
 
+        return allocated
+                ? createAllocated(serialNumber, passStyleOf(request), passJsonString)
+                : storeAndBuild(serialNumber, passStyleOf(request), passJsonString);
+    }
+
+    /**
+     * Save the pass metadata, then sign and cache the archive
+     */
+    private PassGenerationResult storeAndBuild(String serialNumber, PassMetadata.PassStyle passStyle,
+            String passJsonString) throws Exception {
         // Save or update pass metadata
-        savePassMetadata(serialNumber, passJsonString);
+        PassMetadata metadata = savePassMetadata(serialNumber, passStyle, passJsonString);
+        return buildAndCache(metadata, passJsonString);
+    }
+
+    /**
+     * Insert the metadata of a new pass, then sign and cache the archive
+     *
+     * @throws DuplicateKeyException if a pass with this serial number exists
+     */
+    private PassGenerationResult createAndBuild(String serialNumber, PassMetadata.PassStyle passStyle,
+            String passJsonString) throws Exception {
+        PassMetadata metadata = new PassMetadata(serialNumber, passTypeIdentifier);
+        metadata.setPassStyle(passStyle);
+        metadata.setPassData(passJsonString);
+        passMetadataWriter.insert(metadata);
+        passArtifactCache.invalidate(serialNumber);
+        passNegativeCache.invalidate(serialNumber);
+        return buildAndCache(metadata, passJsonString);
+    }
+
+    /**
+     * Create a pass under a freshly allocated serial number. Allocators hand
+     * out unused serials, so one that is taken means the allocator overlaps
+     * serials chosen elsewhere; fail rather than replace that pass.
+     */
+    private PassGenerationResult createAllocated(String serialNumber, PassMetadata.PassStyle passStyle,
+            String passJsonString) throws Exception {
+        try {
+            return createAndBuild(serialNumber, passStyle, passJsonString);
+        } catch (DuplicateKeyException e) {
+            logger.error("Allocated serial number {} is already taken by another pass", serialNumber);
+            throw new IllegalStateException("Allocated serial number " + serialNumber
+                    + " is already taken; check passkit.serial.prefix and passkit.serial.format", e);
+        }
+    }
+
+    private PassGenerationResult buildAndCache(PassMetadata metadata, String passJsonString) throws Exception {
+        String serialNumber = metadata.getSerialNumber();
+        PkpassArchive pkpass = buildPkpass(passJsonString);
+        logger.info("Pass generated successfully (total size: {} bytes)", pkpass.getLength());
+
+        // Warm the cache so the first device download does not sign again
+        passArtifactCache.put(metadata.getPassTypeId(), serialNumber, metadata.getVersion(), pkpass);
+
+        return new PassGenerationResult(pkpass, serialNumber);
+    }
+
+    private PassMetadata.PassStyle passStyleOf(com.example.passkit.dto.PassRequest request) {
+        return request.getType() != null
+                ? PassMetadata.PassStyle.valueOf(request.getType().name())
+                : PassMetadata.PassStyle.GENERIC;
+    }
+
+    /**
+     * Per-pass values for the template slots, one per
+     * PassTemplateService.RENDER_SLOTS
+     */
+    private Map<String, String> templateValues(String serialNumber) {
+        return Map.of("serialNumber", serialNumber,
+                "authenticationToken", passAuthTokenService.tokenFor(passTypeIdentifier, serialNumber));
+    }
+
+    /**
+     * Build the signed .pkpass archive for a pass.json document
+     */
+    private PkpassArchive buildPkpass(String passJsonString) throws Exception {
+        byte[] passJsonBytes = passJsonString.getBytes(StandardCharsets.UTF_8);
 
         // Create manifest.json (include PNG files)
-        Map<String, String> manifest = createManifest(passJsonString);
-        String manifestJsonString = new ObjectMapper().writerWithDefaultPrettyPrinter()
-                .writeValueAsString(manifest);
+        PassAssetBundle assets = passAssetService.getBundle();
+        byte[] manifestBytes = passJsonCodec.writeManifest(createManifest(passJsonBytes, assets));
 
-        logger.debug("Created manifest.json with {} entries", manifest.size());
+        logger.debug("Created manifest.json with {} entries", assets.getAssets().size() + 1);
 
         // Sign manifest
         logger.info("Signing manifest with certificates...");
-        byte[] signature = signManifest(manifestJsonString.getBytes(StandardCharsets.UTF_8));
+        byte[] signature = signManifest(manifestBytes);
         logger.info("Manifest signed successfully (signature size: {} bytes)", signature.length);
 
         // Create .pkpass zip file
         logger.info("Creating .pkpass zip file...");
-        byte[] pkpass = createPkpassZip(passJsonString, manifestJsonString, signature);
-        logger.info("Pass generated successfully (total size: {} bytes)", pkpass.length);
-
-        return new PassGenerationResult(pkpass, serialNumber);
+        return pkpassWriter.write(passJsonBytes, manifestBytes, signature, assets);
     }
 
     /**
-     * Get static pass request based on type (simulates database/template lookup)
+     * Build and sign a new pass without persisting it. Batch generation uses this
+     * so the metadata of many passes can be stored with one batched insert.
      */
-    private com.example.passkit.dto.PassRequest getStaticPassRequest(String type) {
-        com.example.passkit.dto.PassRequest request = new com.example.passkit.dto.PassRequest();
-
-        switch (type.toUpperCase()) {
-            case "BP":
-            case "BOARDING":
-            case "BOARDING_PASS":
-                request.setType(com.example.passkit.dto.PassRequest.PassType.BOARDING_PASS);
-                request.setDescription("Flight to NYC");
-                request.setBackgroundColor("rgb(0, 51, 102)");
-                request.setForegroundColor("rgb(255, 255, 255)");
-                request.setTransitType("PKTransitTypeAir");
-                request.setBarcodeMessage("BOARDING123456");
-                request.setBarcodeFormat("PKBarcodeFormatQR");
-
-                request.setPrimaryFields(Arrays.asList(
-                        createField("origin", "SAN FRANCISCO", "SFO"),
-                        createField("destination", "NEW YORK", "JFK")));
-                request.setSecondaryFields(Arrays.asList(
-                        createField("passenger", "PASSENGER", "Jane Smith"),
-                        createField("seat", "SEAT", "14B")));
-                request.setAuxiliaryFields(Arrays.asList(
-                        createField("gate", "GATE", "A23"),
-                        createField("boarding", "BOARDING", "2:45 PM")));
-                break;
-
-            case "CP":
-            case "COUPON":
-                request.setType(com.example.passkit.dto.PassRequest.PassType.COUPON);
-                request.setDescription("Store Discount");
-                request.setBackgroundColor("rgb(255, 87, 34)");
-                request.setForegroundColor("rgb(255, 255, 255)");
-                request.setBarcodeMessage("COUPON25OFF");
-                request.setBarcodeFormat("PKBarcodeFormatQR"); // Assuming QR
-
-                request.setPrimaryFields(Arrays.asList(
-                        createField("offer", "", "25% OFF")));
-                request.setSecondaryFields(Arrays.asList(
-                        createField("expires", "EXPIRES", "Dec 31, 2026")));
-                request.setBackFields(Arrays.asList(
-                        createField("terms", "Terms", "Valid on purchases over $50.")));
-                break;
+    public PreparedPass preparePass(String serialNumber, com.example.passkit.dto.PassRequest request)
+            throws Exception {
+        String passJsonString;
+        PassMetadata.PassStyle passStyle;
+        if (request == null) {
+            CompiledPassTemplate template = passTemplateService.resolve(null);
+            passJsonString = template.render(templateValues(serialNumber));
+            passStyle = template.getPassStyle();
+        } else {
+            passJsonString = passJsonCodec.writeString(createPassJson(serialNumber, request));
+            passStyle = passStyleOf(request);
+        }
 
-            case "EP":
-            case "EVENT":
-            case "EVENT_TICKET":
-                request.setType(com.example.passkit.dto.PassRequest.PassType.EVENT_TICKET);
-                request.setDescription("Concert Ticket");
-                request.setBackgroundColor("rgb(138, 43, 226)");
-                request.setForegroundColor("rgb(255, 255, 255)");
-                request.setBarcodeMessage("TICKET789012");
-                request.setBarcodeFormat("PKBarcodeFormatQR");
-
-                request.setPrimaryFields(Arrays.asList(
-                        createField("event", "EVENT", "Rock Concert 2026")));
-                request.setSecondaryFields(Arrays.asList(
-                        createField("date", "DATE", "March 15, 2026"),
-                        createField("time", "TIME", "8:00 PM")));
-                request.setAuxiliaryFields(Arrays.asList(
-                        createField("section", "SECTION", "VIP"),
-                        createField("seat", "SEAT", "A-12")));
-                break;
+        PassMetadata metadata = new PassMetadata(serialNumber, passTypeIdentifier);
+        metadata.setPassStyle(passStyle);
+        metadata.setPassData(passJsonString);
 
-            case "SP":
-            case "STORE":
-            case "STORE_CARD":
-                request.setType(com.example.passkit.dto.PassRequest.PassType.STORE_CARD);
-                request.setDescription("Loyalty Card");
-                request.setBackgroundColor("rgb(76, 175, 80)");
-                request.setForegroundColor("rgb(255, 255, 255)");
-                request.setBarcodeMessage("MEMBER345678");
-                request.setBarcodeFormat("PKBarcodeFormatQR");
-
-                request.setPrimaryFields(Arrays.asList(
-                        createField("balance", "POINTS", "2,500")));
-                request.setSecondaryFields(Arrays.asList(
-                        createField("member", "MEMBER", "Alice Johnson")));
-                request.setAuxiliaryFields(Arrays.asList(
-                        createField("tier", "TIER", "Gold")));
-                break;
+        return new PreparedPass(metadata, buildPkpass(passJsonString));
+    }
 
-            case "GP":
-            case "GENERIC":
-            default:
-                request.setType(com.example.passkit.dto.PassRequest.PassType.GENERIC);
-                request.setBackgroundColor("rgb(220, 20, 60)");
-                request.setForegroundColor("rgb(255, 255, 255)");
-                request.setLabelColor("rgb(255, 215, 0)");
-
-                request.setPrimaryFields(Arrays.asList(
-                        createField("title", "VIP Pass", "Gold Member")));
-                request.setSecondaryFields(Arrays.asList(
-                        createField("name", "Name", "John Doe")));
-                break;
-        }
-        return request;
+    /**
+     * Allocate distinct, unused serial numbers for a batch of new passes
+     */
+    public List<String> allocateSerialNumbers(int count) {
+        return serialNumberAllocator.allocate(count);
     }
 
     private com.example.passkit.dto.PassField createField(String key, String label, String value) {
@@ -377,51 +469,110 @@ public class PassGeneratorService {
         return field;
     }
 
-    private void savePassMetadata(String serialNumber, String passJsonString) {
+    private PassMetadata savePassMetadata(String serialNumber, PassMetadata.PassStyle passStyle,
+            String passJsonString) {
         Optional<PassMetadata> existingMetadata = passMetadataRepository.findBySerialNumber(serialNumber);
         PassMetadata metadata;
 
         if (existingMetadata.isPresent()) {
             // Existing pass - increment version
             metadata = existingMetadata.get();
+            metadata.setPassStyle(passStyle);
             metadata.setPassData(passJsonString);
             metadata.incrementVersion();
         } else {
             // New pass
             metadata = new PassMetadata(serialNumber, passTypeIdentifier);
+            metadata.setPassStyle(passStyle);
             metadata.setPassData(passJsonString);
         }
 
-        passMetadataRepository.save(metadata);
+        metadata = passMetadataWriter.save(metadata);
+        passArtifactCache.invalidate(serialNumber);
+        passNegativeCache.invalidate(serialNumber);
+        return metadata;
     }
 
-    private String generate5DigitSerialNumber() {
-        Random random = new Random();
-        String serialNumber;
-        do {
-            serialNumber = String.format("%05d", random.nextInt(100000));
-        } while (passMetadataRepository.existsBySerialNumber(serialNumber));
-        return serialNumber;
+    public PassGenerationResult getUpdatedPass(String serialNumber) throws Exception {
+        PassLookup lookup = lookupPass(serialNumber);
+        switch (lookup.getStatus()) {
+            case ABSENT:
+                throw new Exception("Pass not found: " + serialNumber);
+            case REVOKED:
+                throw new Exception("Pass is revoked: " + serialNumber);
+            default:
+                return lookup.getResult();
+        }
     }
 
-    public PassGenerationResult getUpdatedPass(String serialNumber) throws Exception {
-        PassMetadata metadata = passMetadataRepository.findBySerialNumber(serialNumber)
-                .orElseThrow(() -> new Exception("Pass not found: " + serialNumber));
+    /**
+     * Get the signed current version of a pass. Unknown and revoked passes
+     * are reported in the result rather than thrown.
+     */
+    public PassLookup lookupPass(String serialNumber) throws Exception {
+        Optional<PassHeader> header = getPassHeader(serialNumber);
+        return header.isPresent() ? lookupPass(header.get()) : PassLookup.ABSENT;
+    }
 
-        if (metadata.getStatus() == PassMetadata.PassStatus.REVOKED) {
-            throw new Exception("Pass is revoked: " + metadata.getStatus());
+    /**
+     * Get the signed version of a pass whose header has already been read
+     */
+    public PassLookup lookupPass(PassHeader header) throws Exception {
+        String serialNumber = header.getSerialNumber();
+        if (header.getStatus() == PassMetadata.PassStatus.REVOKED) {
+            return PassLookup.REVOKED;
+        }
+
+        // Serve the already signed archive if this version was built before
+        PkpassArchive pkpass = passArtifactCache.get(header.getPassTypeId(), serialNumber, header.getVersion());
+        if (pkpass != null) {
+            logger.debug("Serving cached pass {} (version {})", serialNumber, header.getVersion());
+            return new PassLookup(PassLookup.Status.FOUND, new PassGenerationResult(pkpass, serialNumber));
         }
 
-        String passJsonString = metadata.getPassData();
+        // Devices notified of an update fetch the same version at once: build it once for all of them
+        pkpass = passBuilds.execute(serialNumber + ":" + header.getVersion(), () -> buildStoredPass(serialNumber));
+
+        return new PassLookup(PassLookup.Status.FOUND, new PassGenerationResult(pkpass, serialNumber));
+    }
+
+    /**
+     * Sign the stored pass.json of a pass and cache the result
+     */
+    private PkpassArchive buildStoredPass(String serialNumber) throws Exception {
+        StoredPassData stored = passMetadataRepository.findPassDataBySerialNumber(serialNumber)
+                .orElseThrow(() -> new Exception("Pass not found: " + serialNumber));
 
         // Create manifest and sign based on STORED data
-        Map<String, String> manifest = createManifest(passJsonString);
-        String manifestJsonString = new ObjectMapper().writerWithDefaultPrettyPrinter()
-                .writeValueAsString(manifest);
-        byte[] signature = signManifest(manifestJsonString.getBytes(StandardCharsets.UTF_8));
-        byte[] pkpass = createPkpassZip(passJsonString, manifestJsonString, signature);
+        PkpassArchive pkpass = buildPkpass(stored.getPassData());
+        passArtifactCache.put(stored.getPassTypeId(), serialNumber, stored.getVersion(), pkpass);
+        return pkpass;
+    }
 
-        return new PassGenerationResult(pkpass, serialNumber);
+    /**
+     * Counters of stored-pass builds and of requests that shared another
+     * request's build
+     */
+    public Map<String, Object> getFetchStats() {
+        return passBuilds.getStats();
+    }
+
+    /**
+     * Version, status and modification time of a pass, read without its
+     * pass.json. Used to answer conditional requests without signing.
+     */
+    public Optional<PassHeader> getPassHeader(String serialNumber) {
+        if (passNegativeCache.isAbsent(serialNumber)) {
+            return Optional.empty();
+        }
+
+        // Read before the query, so a pass created while it runs is not cached as absent
+        long generation = passNegativeCache.generation(serialNumber);
+        Optional<PassHeader> header = passMetadataRepository.findHeaderBySerialNumber(serialNumber);
+        if (header.isEmpty()) {
+            passNegativeCache.markAbsent(serialNumber, generation);
+        }
+        return header;
     }
 
     public void updatePass(String serialNumber) throws Exception {
@@ -430,24 +581,9 @@ public class PassGeneratorService {
 
         // Increment version
         metadata.incrementVersion();
-        passMetadataRepository.save(metadata);
-
-        // Notify registered devices
-        apnsService.notifyPassUpdate(passTypeIdentifier, serialNumber);
-    }
-
-    private String detectTypeFromPassJson(String json) {
-        if (json == null)
-            return "GENERIC";
-        if (json.contains("\"boardingPass\""))
-            return "BOARDING";
-        if (json.contains("\"coupon\""))
-            return "COUPON";
-        if (json.contains("\"eventTicket\""))
-            return "EVENT";
-        if (json.contains("\"storeCard\""))
-            return "STORE";
-        return "GENERIC";
+        // Queues the push to registered devices with the change
+        passMetadataWriter.saveAndNotify(metadata);
+        passArtifactCache.invalidate(serialNumber);
     }
 
     /**
@@ -461,12 +597,10 @@ public class PassGeneratorService {
         metadata.setStatus(PassMetadata.PassStatus.REVOKED);
         metadata.setRevokedAt(java.time.LocalDateTime.now());
         metadata.incrementVersion();
-        passMetadataRepository.save(metadata);
+        passMetadataWriter.saveAndNotify(metadata);
+        passArtifactCache.invalidate(serialNumber);
 
         logger.info("Pass revoked: {}", serialNumber);
-
-        // Notify registered devices about the revocation
-        apnsService.notifyPassUpdate(passTypeIdentifier, serialNumber);
     }
 
     /**
@@ -480,12 +614,10 @@ public class PassGeneratorService {
         metadata.setStatus(PassMetadata.PassStatus.EXPIRED);
         metadata.setExpiresAt(java.time.LocalDateTime.now());
         metadata.incrementVersion();
-        passMetadataRepository.save(metadata);
+        passMetadataWriter.saveAndNotify(metadata);
+        passArtifactCache.invalidate(serialNumber);
 
         logger.info("Pass expired: {}", serialNumber);
-
-        // Notify registered devices about the expiration
-        apnsService.notifyPassUpdate(passTypeIdentifier, serialNumber);
     }
 
     /**
@@ -515,7 +647,7 @@ public class PassGeneratorService {
         // Add web service configuration if available
         if (webServiceURL != null && !webServiceURL.isEmpty()) {
             pass.put("webServiceURL", webServiceURL);
-            pass.put("authenticationToken", authenticationToken);
+            pass.put("authenticationToken", passAuthTokenService.tokenFor(passTypeIdentifier, serialNumber));
         }
 
         // Barcode configuration
@@ -861,36 +993,15 @@ public class PassGeneratorService {
         return field;
     }
 
-    private Map<String, String> createManifest(String passJsonString) throws Exception {
-        Map<String, String> manifest = new HashMap<>();
+    private SortedMap<String, String> createManifest(byte[] passJson, PassAssetBundle assets) throws Exception {
+        SortedMap<String, String> manifest = new TreeMap<>();
 
         // Hash pass.json
-        String passHash = sha1Hash(passJsonString.getBytes(StandardCharsets.UTF_8));
-        manifest.put("pass.json", passHash);
+        manifest.put("pass.json", sha1Hash(passJson));
 
-        // Hash PNG files if they exist
-        try {
-            byte[] iconPng = readResource("passkit/icon.png");
-            manifest.put("icon.png", sha1Hash(iconPng));
-            logger.debug("Added icon.png to manifest");
-        } catch (Exception e) {
-            logger.warn("Could not add icon.png to manifest: {}", e.getMessage());
-        }
-
-        try {
-            byte[] icon2xPng = readResource("passkit/icon@2x.png");
-            manifest.put("icon@2x.png", sha1Hash(icon2xPng));
-            logger.debug("Added icon@2x.png to manifest");
-        } catch (Exception e) {
-            logger.warn("Could not add icon@2x.png to manifest: {}", e.getMessage());
-        }
-
-        try {
-            byte[] icon3xPng = readResource("passkit/icon@3x.png");
-            manifest.put("icon@3x.png", sha1Hash(icon3xPng));
-            logger.debug("Added icon@3x.png to manifest");
-        } catch (Exception e) {
-            logger.warn("Could not add icon@3x.png to manifest: {}", e.getMessage());
+        // PNG hashes are precomputed by the asset bundle
+        for (PassAssetBundle.Asset asset : assets.getAssets()) {
+            manifest.put(asset.getName(), asset.getSha1Hex());
         }
 
         return manifest;
@@ -898,52 +1009,26 @@ public class PassGeneratorService {
 
     private String sha1Hash(byte[] data) throws Exception {
         MessageDigest digest = MessageDigest.getInstance("SHA-1");
-        byte[] hash = digest.digest(data);
-        return bytesToHex(hash);
+        return HexFormat.of().formatHex(digest.digest(data));
     }
 
-    private String bytesToHex(byte[] bytes) {
-        StringBuilder result = new StringBuilder();
-        for (byte b : bytes) {
-            result.append(String.format("%02x", b));
-        }
-        return result.toString();
+    private byte[] signManifest(byte[] manifestData) throws Exception {
+        return getSigningContext().sign(manifestData);
     }
 
-    private byte[] signManifest(byte[] manifestData) throws Exception {
-        // Load certificates if not already loaded
-        if (privateKey == null || passCertificate == null || wwdrCertificate == null) {
-            loadCertificates();
+    private PassSigningContext getSigningContext() throws Exception {
+        PassSigningContext context = signingContext;
+        if (context == null) {
+            synchronized (this) {
+                context = signingContext;
+                if (context == null) {
+                    loadCertificates();
+                    context = new PassSigningContext(privateKey, passCertificate, wwdrCertificate);
+                    signingContext = context;
+                }
+            }
         }
-
-        // Create CMS signed data
-        CMSTypedData cmsData = new CMSProcessableByteArray(manifestData);
-
-        // Certificate chain order: Pass Type ID certificate first, then WWDR
-        // certificate
-        // This order is important for proper chain validation
-        @SuppressWarnings("unchecked")
-        Store<X509Certificate> certStore = new JcaCertStore(Arrays.asList(passCertificate, wwdrCertificate));
-
-        CMSSignedDataGenerator generator = new CMSSignedDataGenerator();
-
-        ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA")
-                .setProvider("BC")
-                .build(privateKey);
-
-        DigestCalculatorProvider digestProvider = new JcaDigestCalculatorProviderBuilder()
-                .setProvider("BC")
-                .build();
-
-        generator.addSignerInfoGenerator(
-                new JcaSignerInfoGeneratorBuilder(digestProvider)
-                        .build(signer, passCertificate));
-
-        generator.addCertificates(certStore);
-
-        CMSSignedData signedData = generator.generate(cmsData, false);
-
-        return signedData.getEncoded();
+        return context;
     }
 
     private void loadCertificates() throws Exception {
@@ -1167,77 +1252,4 @@ public class PassGeneratorService {
             }
         }
     }
-
-    private byte[] createPkpassZip(String passJsonString, String manifestJsonString, byte[] signature)
-            throws Exception {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-        try (ZipOutputStream zos = new ZipOutputStream(baos)) {
-            // Add pass.json
-            ZipEntry passEntry = new ZipEntry("pass.json");
-            zos.putNextEntry(passEntry);
-            zos.write(passJsonString.getBytes(StandardCharsets.UTF_8));
-            zos.closeEntry();
-
-            // Add manifest.json
-            ZipEntry manifestEntry = new ZipEntry("manifest.json");
-            zos.putNextEntry(manifestEntry);
-            zos.write(manifestJsonString.getBytes(StandardCharsets.UTF_8));
-            zos.closeEntry();
-
-            // Add signature
-            ZipEntry signatureEntry = new ZipEntry("signature");
-            zos.putNextEntry(signatureEntry);
-            zos.write(signature);
-            zos.closeEntry();
-
-            // add png files
-            try {
-                byte[] iconPng = readResource("passkit/icon.png");
-                ZipEntry pngLogo = new ZipEntry("icon.png");
-                zos.putNextEntry(pngLogo);
-                zos.write(iconPng);
-                zos.closeEntry();
-                logger.info("Successfully added icon.png to pass ({} bytes)", iconPng.length);
-            } catch (Exception e) {
-                logger.error("Could not load icon.png: {}", e.getMessage(), e);
-            }
-
-            try {
-                byte[] icon2xPng = readResource("passkit/icon@2x.png");
-                ZipEntry pngLogo2 = new ZipEntry("icon@2x.png");
-                zos.putNextEntry(pngLogo2);
-                zos.write(icon2xPng);
-                zos.closeEntry();
-                logger.info("Successfully added icon@2x.png to pass ({} bytes)", icon2xPng.length);
-            } catch (Exception e) {
-                logger.error("Could not load icon@2x.png: {}", e.getMessage(), e);
-            }
-
-            try {
-                byte[] icon3xPng = readResource("passkit/icon@3x.png");
-                ZipEntry pngLogo3 = new ZipEntry("icon@3x.png");
-                zos.putNextEntry(pngLogo3);
-                zos.write(icon3xPng);
-                zos.closeEntry();
-                logger.info("Successfully added icon@3x.png to pass ({} bytes)", icon3xPng.length);
-            } catch (Exception e) {
-                logger.error("Could not load icon@3x.png: {}", e.getMessage(), e);
-            }
-        }
-
-        return baos.toByteArray();
-    }
-
-    private byte[] readResource(String path) throws IOException {
-        ClassPathResource res = new ClassPathResource(path);
-        if (!res.exists()) {
-            throw new FileNotFoundException("Resource not found: " + path + " (checked classpath)");
-        }
-        try (InputStream in = res.getInputStream()) {
-            byte[] data = in.readAllBytes();
-            logger.debug("Loaded resource {}: {} bytes", path, data.length);
-            return data;
-        }
-    }
 }
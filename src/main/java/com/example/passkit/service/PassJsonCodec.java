@@ -0,0 +1,103 @@
+package com.example.passkit.service;
+
+import com.example.passkit.model.PassMetadata.PassStyle;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * The one JSON configuration used for pass documents.
+ *
+ * Output is compact unless passkit.json.pretty is set, and map keys are
+ * written in sorted order, so the same pass always serializes to the same
+ * bytes and unchanged passes keep the same manifest hashes. The mapper,
+ * writer and reader are built once and shared by all threads.
+ */
+@Service
+public class PassJsonCodec {
+
+    @Value("${passkit.json.pretty:false}")
+    private boolean pretty;
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private ObjectWriter writer;
+    // NDJSON lines stay on one line even when pass documents are pretty printed
+    private ObjectWriter lineWriter;
+    private ObjectReader treeReader;
+
+    // Reused by each request thread for streaming manifest output
+    private final ThreadLocal<ByteArrayBuilder> buffers = ThreadLocal.withInitial(() -> new ByteArrayBuilder(512));
+
+    @PostConstruct
+    public void init() {
+        writer = pretty ? mapper.writerWithDefaultPrettyPrinter() : mapper.writer();
+        lineWriter = mapper.writer();
+        treeReader = mapper.reader();
+    }
+
+    public String writeString(Object value) throws IOException {
+        return writer.writeValueAsString(value);
+    }
+
+    public byte[] writeBytes(Object value) throws IOException {
+        return writer.writeValueAsBytes(value);
+    }
+
+    /**
+     * Write a value as one compact JSON line
+     */
+    public void writeLine(Object value, OutputStream out) throws IOException {
+        out.write(lineWriter.writeValueAsBytes(value));
+        out.write('\n');
+    }
+
+    public JsonNode readTree(InputStream in) throws IOException {
+        return treeReader.readTree(in);
+    }
+
+    public PassDocument readDocument(String json, PassStyle style) throws IOException {
+        JsonNode root = treeReader.readTree(json);
+        if (!root.isObject()) {
+            throw new IOException("pass.json is not a JSON object");
+        }
+        return PassDocument.of((ObjectNode) root, style);
+    }
+
+    /**
+     * Stream manifest.json (file name to SHA-1 hex) in key order
+     */
+    public byte[] writeManifest(SortedMap<String, String> hashes) throws IOException {
+        ByteArrayBuilder buffer = buffers.get();
+        buffer.reset();
+
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(buffer, JsonEncoding.UTF8)) {
+            if (pretty) {
+                generator.useDefaultPrettyPrinter();
+            }
+            generator.writeStartObject();
+            for (Map.Entry<String, String> entry : hashes.entrySet()) {
+                generator.writeStringField(entry.getKey(), entry.getValue());
+            }
+            generator.writeEndObject();
+        }
+
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.passkit.service;
+
+import com.example.passkit.model.PassMetadata;
+import com.example.passkit.repository.PassMetadataBatchRepository;
+import com.example.passkit.repository.PassMetadataRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * The single write path for pass metadata.
+ *
+ * Every write takes the next value of the update tag counter in the same
+ * transaction as the row itself. The counter row stays locked until commit,
+ * so tags become visible in increasing order and a device that has synced up
+ * to tag N can never miss a change committed later with a smaller tag.
+ */
+@Service
+public class PassMetadataWriter {
+
+    static final String UPDATE_TAG_SEQUENCE = "pass_update_tag";
+
+    @Autowired
+    private PassMetadataRepository passMetadataRepository;
+
+    @Autowired
+    private PassMetadataBatchRepository passMetadataBatchRepository;
+
+    @Autowired
+    private SequenceService sequenceService;
+
+    @Autowired
+    private PushOutboxDispatcher pushOutboxDispatcher;
+
+    @PostConstruct
+    public void init() {
+        // Create the counter row up front so concurrent first writers do not race to insert it
+        sequenceService.reserve(UPDATE_TAG_SEQUENCE, 0);
+    }
+
+    @Transactional
+    public PassMetadata save(PassMetadata metadata) {
+        metadata.setUpdateTag(sequenceService.next(UPDATE_TAG_SEQUENCE, 1));
+        return passMetadataRepository.save(metadata);
+    }
+
+    /**
+     * Save a change that devices holding the pass must hear about. The push
+     * is recorded in the push outbox in the same transaction, so it is sent
+     * exactly when the change commits.
+     */
+    @Transactional
+    public PassMetadata saveAndNotify(PassMetadata metadata) {
+        PassMetadata saved = save(metadata);
+        pushOutboxDispatcher.enqueue(saved.getPassTypeId(), saved.getSerialNumber());
+        return saved;
+    }
+
+    /**
+     * Insert a new pass. Unlike {@link #save(PassMetadata)}, never replaces a
+     * pass stored under the same serial number.
+     *
+     * @throws org.springframework.dao.DuplicateKeyException if the serial number is taken
+     */
+    @Transactional
+    public void insert(PassMetadata metadata) {
+        metadata.setUpdateTag(sequenceService.next(UPDATE_TAG_SEQUENCE, 1));
+        passMetadataBatchRepository.insert(metadata);
+    }
+
+    /**
+     * Insert new passes with one batched statement and a block of update tags
+     */
+    @Transactional
+    public void insertAll(List<PassMetadata> passes) {
+        long tag = sequenceService.next(UPDATE_TAG_SEQUENCE, passes.size());
+        for (PassMetadata metadata : passes) {
+            metadata.setUpdateTag(tag++);
+        }
+        passMetadataBatchRepository.insertAll(passes);
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.passkit.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Short-lived record of serial numbers that were looked up and do not exist.
+ *
+ * Repeated requests for unknown serials (crawlers, client retries) are
+ * answered from memory instead of hitting the database each time. Entries
+ * expire after a fixed time and the oldest are dropped beyond the size bound.
+ * Creating a pass removes its serial, so a new pass is visible immediately.
+ *
+ * A lookup that started before a pass was created can miss the new row and
+ * report the serial absent after it was invalidated. Every invalidation
+ * therefore bumps a generation, and a lookup marks a serial absent only if
+ * its generation has not moved since the lookup read it. Generations are
+ * striped by serial hash, so they take fixed memory; a collision only costs
+ * a skipped cache entry.
+ */
+@Service
+public class PassNegativeCache {
+
+    @Value("${passkit.cache.negative.ttl-ms:30000}")
+    private long ttlMillis;
+
+    @Value("${passkit.cache.negative.max-entries:10000}")
+    private int maxEntries;
+
+    // Serial number to expiry time, oldest insertion first
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>();
+
+    private static final int GENERATION_STRIPES = 4096;
+
+    // Invalidations per stripe of serial numbers
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleMarks = new AtomicLong();
+
+    /**
+     * Whether the serial number is known not to exist
+     */
+    public boolean isAbsent(String serialNumber) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Long expiresAt = entries.get(serialNumber);
+            if (expiresAt == null) {
+                return false;
+            }
+            if (expiresAt <= now) {
+                entries.remove(serialNumber);
+                return false;
+            }
+        }
+        hits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Generation of a serial number, to read before looking it up in the
+     * database and pass to {@link #markAbsent(String, long)}
+     */
+    public long generation(String serialNumber) {
+        return generations.get(stripe(serialNumber));
+    }
+
+    /**
+     * Remember that the serial number does not exist, unless it was
+     * invalidated since its generation was read
+     */
+    public void markAbsent(String serialNumber, long generation) {
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        synchronized (this) {
+            if (generations.get(stripe(serialNumber)) != generation) {
+                // Created while the lookup ran; the lookup's answer is stale
+                staleMarks.incrementAndGet();
+                return;
+            }
+            // Re-insert so the entry moves to the young end
+            entries.remove(serialNumber);
+            entries.put(serialNumber, expiresAt);
+            while (entries.size() > maxEntries) {
+                entries.remove(entries.keySet().iterator().next());
+            }
+        }
+    }
+
+    public synchronized void invalidate(String serialNumber) {
+        generations.incrementAndGet(stripe(serialNumber));
+        entries.remove(serialNumber);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("entries", entries.size());
+        }
+        stats.put("maxEntries", maxEntries);
+        stats.put("ttlMillis", ttlMillis);
+        stats.put("hits", hits.get());
+        stats.put("staleMarks", staleMarks.get());
+        return stats;
+    }
+
+    private static int stripe(String serialNumber) {
+        return (serialNumber.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+}
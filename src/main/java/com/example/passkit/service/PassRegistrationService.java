@@ -1,16 +1,49 @@
 package com.example.passkit.service;
 
 import com.example.passkit.model.DeviceRegistration;
+import com.example.passkit.repository.DeviceRegistrationBatchRepository;
 import com.example.passkit.repository.DeviceRegistrationRepository;
+import com.example.passkit.repository.PassHeader;
+import com.example.passkit.repository.PassMetadataRepository;
+import com.example.passkit.repository.UpdatedSerial;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * Device registrations with write-behind persistence.
+ *
+ * A registration or unregistration is acknowledged once it is fsynced to the
+ * registration journal, which is group committed across concurrent requests.
+ * Until it reaches the database it is kept in a pending overlay, keyed like
+ * the unique constraint and indexed by device and by pass, and every read
+ * merges the overlay entries of its device or passes over the database
+ * so a device always sees its own changes. A background flusher applies the
+ * overlay with batched MERGE and DELETE statements and then drops the journal
+ * segments it covered. After a crash, the journal is replayed at startup.
+ */
 @Service
 public class PassRegistrationService {
 
@@ -19,89 +52,288 @@ public class PassRegistrationService {
     @Autowired
     private DeviceRegistrationRepository deviceRegistrationRepository;
 
+    @Autowired
+    private DeviceRegistrationBatchRepository deviceRegistrationBatchRepository;
+
+    @Autowired
+    private PassMetadataRepository passMetadataRepository;
+
+    @Value("${passkit.registration.journal.path:data/registration-journal}")
+    private String journalPath;
+
+    @Value("${passkit.registration.flush-interval-ms:200}")
+    private long flushIntervalMillis;
+
+    @Value("${passkit.registration.flush-threshold:5000}")
+    private int flushThreshold;
+
+    private RegistrationJournal journal;
+    private ScheduledExecutorService flusher;
+
+    // Latest unflushed change per (deviceId, passTypeId, serialNumber)
+    private final PendingRegistrations pending = new PendingRegistrations();
+
+    // Held shared while a change enters the overlay and the journal, exclusively while the flusher
+    // takes its snapshot, so every change in a sealed segment is also in the snapshot
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushedChanges = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+
+    @PostConstruct
+    public void init() throws IOException {
+        journal = new RegistrationJournal(Paths.get(journalPath));
+        journal.open(pending::put);
+
+        flusher = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("registration-flush-"));
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        journal.close();
+    }
+
     /**
      * Register a device for pass updates
      */
-    @Transactional
-    public DeviceRegistration registerDevice(String deviceId, String passTypeId, 
-                                             String serialNumber, String pushToken) {
-        logger.info("Registering device: deviceId={}, passTypeId={}, serialNumber={}", 
+    public DeviceRegistration registerDevice(String deviceId, String passTypeId,
+                                             String serialNumber, String pushToken) throws IOException {
+        logger.info("Registering device: deviceId={}, passTypeId={}, serialNumber={}",
                     deviceId, passTypeId, serialNumber);
 
-        Optional<DeviceRegistration> existing = deviceRegistrationRepository
-                .findByDeviceIdAndPassTypeIdAndSerialNumber(deviceId, passTypeId, serialNumber);
+        enqueue(new RegistrationJournal.Record(RegistrationJournal.Operation.REGISTER,
+                deviceId, passTypeId, serialNumber, pushToken, System.currentTimeMillis()));
 
-        if (existing.isPresent()) {
-            // Update push token if changed
-            DeviceRegistration registration = existing.get();
-            if (pushToken != null && !pushToken.equals(registration.getPushToken())) {
-                registration.setPushToken(pushToken);
-                registration = deviceRegistrationRepository.save(registration);
-                logger.info("Updated push token for existing registration: id={}", registration.getId());
-            } else {
-                logger.info("Device already registered: id={}", registration.getId());
-            }
-            return registration;
-        }
-
-        DeviceRegistration registration = new DeviceRegistration(deviceId, passTypeId, serialNumber, pushToken);
-        registration = deviceRegistrationRepository.save(registration);
-        logger.info("Created new device registration: id={}", registration.getId());
-
-        return registration;
+        return new DeviceRegistration(deviceId, passTypeId, serialNumber, pushToken);
     }
 
     /**
      * Unregister a device from pass updates
      */
-    @Transactional
-    public boolean unregisterDevice(String deviceId, String passTypeId, String serialNumber) {
-        logger.info("Unregistering device: deviceId={}, passTypeId={}, serialNumber={}", 
+    public boolean unregisterDevice(String deviceId, String passTypeId, String serialNumber) throws IOException {
+        logger.info("Unregistering device: deviceId={}, passTypeId={}, serialNumber={}",
                     deviceId, passTypeId, serialNumber);
 
-        Optional<DeviceRegistration> registration = deviceRegistrationRepository
-                .findByDeviceIdAndPassTypeIdAndSerialNumber(deviceId, passTypeId, serialNumber);
-
-        if (registration.isPresent()) {
-            deviceRegistrationRepository.delete(registration.get());
-            logger.info("Device unregistered successfully");
-            return true;
+        if (!isDeviceRegistered(deviceId, passTypeId, serialNumber)) {
+            logger.warn("Device registration not found for unregistration");
+            return false;
         }
 
-        logger.warn("Device registration not found for unregistration");
-        return false;
+        enqueue(new RegistrationJournal.Record(RegistrationJournal.Operation.UNREGISTER,
+                deviceId, passTypeId, serialNumber, null, System.currentTimeMillis()));
+        return true;
     }
 
     /**
      * Get all serial numbers for passes that a device is registered for
      */
     public List<String> getRegisteredSerialNumbers(String deviceId, String passTypeId) {
-        logger.debug("Fetching registered serial numbers: deviceId={}, passTypeId={}", 
+        logger.debug("Fetching registered serial numbers: deviceId={}, passTypeId={}",
                      deviceId, passTypeId);
 
-        List<DeviceRegistration> registrations = deviceRegistrationRepository
-                .findByDeviceIdAndPassTypeId(deviceId, passTypeId);
+        Set<String> serialNumbers = new LinkedHashSet<>(
+                deviceRegistrationRepository.findSerialNumbers(deviceId, passTypeId));
 
-        return registrations.stream()
-                .map(DeviceRegistration::getSerialNumber)
-                .toList();
+        for (RegistrationJournal.Record record : pending.forDevice(deviceId, passTypeId)) {
+            if (record.getOperation() == RegistrationJournal.Operation.REGISTER) {
+                serialNumbers.add(record.getSerialNumber());
+            } else {
+                serialNumbers.remove(record.getSerialNumber());
+            }
+        }
+
+        return new ArrayList<>(serialNumbers);
     }
 
     /**
-     * Get all devices registered for a specific pass
+     * Serial numbers of the passes a device is registered for that changed
+     * after the given update tag (all of them when the tag is null), and the
+     * newest tag among them
      */
-    public List<DeviceRegistration> getDevicesForPass(String passTypeId, String serialNumber) {
-        logger.debug("Fetching devices for pass: passTypeId={}, serialNumber={}", 
-                     passTypeId, serialNumber);
+    public SerialNumberUpdates getUpdatedSerialNumbers(String deviceId, String passTypeId, Long since) {
+        long after = since != null ? since : -1L;
+        Map<String, Long> updated = new LinkedHashMap<>();
+        for (UpdatedSerial serial : deviceRegistrationRepository.findUpdatedSerials(deviceId, passTypeId, after)) {
+            updated.put(serial.getSerialNumber(), serial.getUpdateTag() != null ? serial.getUpdateTag() : 0L);
+        }
+
+        // Registrations not flushed yet are not in the join; their passes are read in one query
+        List<String> unjoined = new ArrayList<>();
+        for (RegistrationJournal.Record record : pending.forDevice(deviceId, passTypeId)) {
+            if (record.getOperation() == RegistrationJournal.Operation.UNREGISTER) {
+                updated.remove(record.getSerialNumber());
+            } else if (!updated.containsKey(record.getSerialNumber())) {
+                unjoined.add(record.getSerialNumber());
+            }
+        }
+        if (!unjoined.isEmpty()) {
+            for (PassHeader header : passMetadataRepository.findHeadersBySerialNumberIn(unjoined)) {
+                long tag = header.getUpdateTag() != null ? header.getUpdateTag() : 0L;
+                if (header.getPassTypeId().equals(passTypeId) && tag > after) {
+                    updated.put(header.getSerialNumber(), tag);
+                }
+            }
+        }
+
+        long lastUpdated = since != null ? since : 0L;
+        for (long tag : updated.values()) {
+            lastUpdated = Math.max(lastUpdated, tag);
+        }
+        return new SerialNumberUpdates(new ArrayList<>(updated.keySet()), lastUpdated);
+    }
+
+    public static class SerialNumberUpdates {
+        private final List<String> serialNumbers;
+        private final long lastUpdated;
 
-        return deviceRegistrationRepository.findByPassTypeIdAndSerialNumber(passTypeId, serialNumber);
+        public SerialNumberUpdates(List<String> serialNumbers, long lastUpdated) {
+            this.serialNumbers = serialNumbers;
+            this.lastUpdated = lastUpdated;
+        }
+
+        public List<String> getSerialNumbers() {
+            return serialNumbers;
+        }
+
+        /**
+         * Tag to send back as passesUpdatedSince on the next sync
+         */
+        public long getLastUpdated() {
+            return lastUpdated;
+        }
+    }
+
+    /**
+     * Registrations and unregistrations that are acknowledged but not flushed
+     * to the database yet, for the given passes of a pass type (all of its
+     * passes when serialNumbers is null). Each replaces the database row with
+     * the same key, if any.
+     */
+    public List<RegistrationJournal.Record> getPendingChanges(String passTypeId, Set<String> serialNumbers) {
+        return pending.forPasses(passTypeId, serialNumbers);
     }
 
     /**
      * Check if a device is registered for a pass
      */
     public boolean isDeviceRegistered(String deviceId, String passTypeId, String serialNumber) {
+        RegistrationJournal.Record record = pending.get(deviceId, passTypeId, serialNumber);
+        if (record != null) {
+            return record.getOperation() == RegistrationJournal.Operation.REGISTER;
+        }
         return deviceRegistrationRepository
                 .existsByDeviceIdAndPassTypeIdAndSerialNumber(deviceId, passTypeId, serialNumber);
     }
+
+    /**
+     * Apply the pending changes to the database and drop the journal
+     * segments they came from. Runs on the flusher thread, and once more on
+     * shutdown.
+     */
+    public void flush() {
+        flushRequested.set(false);
+        if (!flushLock.tryLock()) {
+            return;
+        }
+        try {
+            List<RegistrationJournal.Record> snapshot;
+            long sealedSegment;
+            snapshotLock.writeLock().lock();
+            try {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                snapshot = pending.snapshot();
+                sealedSegment = journal.rotate();
+            } finally {
+                snapshotLock.writeLock().unlock();
+            }
+
+            List<RegistrationJournal.Record> registrations = new ArrayList<>();
+            List<RegistrationJournal.Record> unregistrations = new ArrayList<>();
+            for (RegistrationJournal.Record record : snapshot) {
+                if (record.getOperation() == RegistrationJournal.Operation.REGISTER) {
+                    registrations.add(record);
+                } else {
+                    unregistrations.add(record);
+                }
+            }
+
+            deviceRegistrationBatchRepository.applyAll(registrations, unregistrations);
+
+            // Keep changes that were superseded while the flush ran
+            for (RegistrationJournal.Record record : snapshot) {
+                pending.remove(record);
+            }
+            journal.deleteThrough(sealedSegment);
+
+            flushes.incrementAndGet();
+            flushedChanges.addAndGet(snapshot.size());
+            logger.debug("Flushed {} registration(s) and {} unregistration(s)",
+                    registrations.size(), unregistrations.size());
+        } catch (Exception e) {
+            // The changes stay pending and in the journal, the next flush retries them
+            failedFlushes.incrementAndGet();
+            logger.error("Failed to flush device registrations: {}", e.getMessage(), e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Delete registrations of push tokens APNs reported dead, unless they
+     * were made or updated after the push was sent
+     *
+     * @return Registrations deleted
+     */
+    public int removeDeadPushTokens(Collection<DeadTokenPruner.DeadToken> deadTokens) {
+        flushLock.lock();
+        try {
+            // Flush first, so a registration still pending is not written back after the delete
+            flush();
+            return deviceRegistrationBatchRepository.deleteDeadPushTokens(deadTokens);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", pending.size());
+        stats.put("flushes", flushes.get());
+        stats.put("flushedChanges", flushedChanges.get());
+        stats.put("failedFlushes", failedFlushes.get());
+        return stats;
+    }
+
+    private void enqueue(RegistrationJournal.Record record) throws IOException {
+        long sequence;
+        snapshotLock.readLock().lock();
+        try {
+            // Overlay and journal must see changes to the same key in the same order
+            synchronized (journal) {
+                pending.put(record);
+                sequence = journal.append(record);
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+
+        journal.sync(sequence);
+
+        if (pending.size() >= flushThreshold && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(this::flush);
+        }
+    }
 }
@@ -0,0 +1,76 @@
+package com.example.passkit.service;
+
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.DigestCalculatorProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+/**
+ * Immutable, thread-safe signing state for one certificate set.
+ *
+ * Everything that only depends on the certificates (key, chain, cert store,
+ * signer-info builder) is prepared once. The CMS generator wraps a stateful
+ * {@link java.security.Signature}, so each thread lazily gets its own generator
+ * and reuses it for every pass it signs.
+ */
+public final class PassSigningContext {
+
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+    private static final String PROVIDER = "BC";
+
+    private final PrivateKey privateKey;
+    private final X509CertificateHolder passCertificateHolder;
+    private final JcaCertStore certStore;
+    private final JcaSignerInfoGeneratorBuilder signerInfoBuilder;
+
+    private final ThreadLocal<CMSSignedDataGenerator> generators = ThreadLocal.withInitial(this::newGenerator);
+
+    public PassSigningContext(PrivateKey privateKey, X509Certificate passCertificate,
+            X509Certificate wwdrCertificate) throws Exception {
+        this.privateKey = privateKey;
+        this.passCertificateHolder = new JcaX509CertificateHolder(passCertificate);
+
+        // Certificate chain order: Pass Type ID certificate first, then WWDR
+        // certificate. This order is important for proper chain validation
+        this.certStore = new JcaCertStore(Arrays.asList(passCertificate, wwdrCertificate));
+
+        DigestCalculatorProvider digestProvider = new JcaDigestCalculatorProviderBuilder()
+                .setProvider(PROVIDER)
+                .build();
+        this.signerInfoBuilder = new JcaSignerInfoGeneratorBuilder(digestProvider);
+    }
+
+    /**
+     * Create a detached CMS signature over the manifest
+     */
+    public byte[] sign(byte[] manifestData) throws Exception {
+        return generators.get()
+                .generate(new CMSProcessableByteArray(manifestData), false)
+                .getEncoded();
+    }
+
+    private CMSSignedDataGenerator newGenerator() {
+        try {
+            ContentSigner signer = new JcaContentSignerBuilder(SIGNATURE_ALGORITHM)
+                    .setProvider(PROVIDER)
+                    .build(privateKey);
+
+            CMSSignedDataGenerator generator = new CMSSignedDataGenerator();
+            generator.addSignerInfoGenerator(signerInfoBuilder.build(signer, passCertificateHolder));
+            generator.addCertificates(certStore);
+            return generator;
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to create CMS generator: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.example.passkit.service;
+
+import com.example.passkit.model.PassMetadata.PassStyle;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Service;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+
+/**
+ * Registry of compiled pass templates.
+ *
+ * Templates are read from JSON files at startup or registered through the API.
+ * A template file holds a name, the type codes it answers to and the pass.json
+ * document with {{name}} placeholders. Deployment constants (pass type, team,
+ * organization, web service) are substituted when the template is compiled, so
+ * only the per-pass slots {{serialNumber}} and {{authenticationToken}} are
+ * filled at render time; templates using any other slot are rejected.
+ */
+@Service
+public class PassTemplateService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PassTemplateService.class);
+
+    /**
+     * The slots PassGeneratorService fills when it renders a pass
+     */
+    public static final Set<String> RENDER_SLOTS = Set.of("serialNumber", "authenticationToken");
+
+    @Autowired
+    private PassJsonCodec passJsonCodec;
+
+    @Value("${passkit.templates.path:passkit/templates}")
+    private String templatesPath;
+
+    @Value("${passkit.templates.default:generic}")
+    private String defaultTemplate;
+
+    @Value("${passkit.pass.typeIdentifier:pass.com.example.passkit}")
+    private String passTypeIdentifier;
+
+    @Value("${passkit.pass.teamIdentifier:YOUR_TEAM_ID}")
+    private String teamIdentifier;
+
+    @Value("${passkit.pass.organizationName:Example Organization}")
+    private String organizationName;
+
+    @Value("${passkit.webservice.url:}")
+    private String webServiceURL;
+
+    // Templates by name, and by lower-cased name or alias for lookups
+    private final Map<String, CompiledPassTemplate> templates = new ConcurrentHashMap<>();
+    private final Map<String, CompiledPassTemplate> lookup = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() throws Exception {
+        Resource[] resources = new PathMatchingResourcePatternResolver()
+                .getResources("classpath*:" + templatesPath + "/*.json");
+
+        for (Resource resource : resources) {
+            try (InputStream in = resource.getInputStream()) {
+                register(passJsonCodec.readTree(in));
+            } catch (Exception e) {
+                throw new Exception("Invalid pass template " + resource.getFilename() + ": " + e.getMessage(), e);
+            }
+        }
+
+        logger.info("Loaded {} pass template(s) from {}", templates.size(), templatesPath);
+    }
+
+    /**
+     * Compile and register a template definition, replacing any template of
+     * the same name
+     */
+    public CompiledPassTemplate register(JsonNode definition) throws Exception {
+        String name = definition.path("name").asText(null);
+        if (name == null || name.isBlank()) {
+            throw new IllegalArgumentException("Template name is required");
+        }
+
+        JsonNode pass = definition.get("pass");
+        if (pass == null || !pass.isObject()) {
+            throw new IllegalArgumentException("Template '" + name + "' must contain a pass object");
+        }
+
+        List<String> aliases = new ArrayList<>();
+        for (JsonNode alias : definition.path("aliases")) {
+            aliases.add(alias.asText());
+        }
+
+        CompiledPassTemplate template = compile(name, aliases, (ObjectNode) pass.deepCopy());
+
+        synchronized (this) {
+            CompiledPassTemplate previous = templates.put(name, template);
+            if (previous != null) {
+                lookup.values().removeIf(t -> t == previous);
+            }
+            lookup.put(name.toLowerCase(Locale.ROOT), template);
+            for (String alias : aliases) {
+                lookup.put(alias.toLowerCase(Locale.ROOT), template);
+            }
+        }
+
+        logger.info("Registered pass template '{}' ({}) with slots {}", name, template.getPassStyle(),
+                template.getSlots().keySet());
+        return template;
+    }
+
+    /**
+     * Find the template for a type code or name. Empty and unknown types fall
+     * back to the default template.
+     */
+    public CompiledPassTemplate resolve(String type) throws Exception {
+        CompiledPassTemplate template = null;
+        if (type != null && !type.isEmpty()) {
+            template = lookup.get(type.toLowerCase(Locale.ROOT));
+            if (template == null) {
+                logger.debug("No pass template for type '{}', using '{}'", type, defaultTemplate);
+            }
+        }
+        if (template == null) {
+            template = templates.get(defaultTemplate);
+        }
+        if (template == null) {
+            throw new Exception("No pass template registered for type: " + type);
+        }
+        return template;
+    }
+
+    public CompiledPassTemplate getTemplate(String name) {
+        return templates.get(name);
+    }
+
+    public Collection<CompiledPassTemplate> getTemplates() {
+        return templates.values();
+    }
+
+    /**
+     * Summary of a template for the API
+     */
+    public Map<String, Object> describe(CompiledPassTemplate template) {
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("name", template.getName());
+        description.put("passStyle", template.getPassStyle().getJsonKey());
+        description.put("aliases", template.getAliases());
+        description.put("slots", template.getSlots());
+        return description;
+    }
+
+    private CompiledPassTemplate compile(String name, List<String> aliases, ObjectNode pass) throws Exception {
+        PassStyle passStyle = null;
+        for (PassStyle style : PassStyle.values()) {
+            if (pass.has(style.getJsonKey())) {
+                if (passStyle != null) {
+                    throw new IllegalArgumentException("Template '" + name + "' defines both "
+                            + passStyle.getJsonKey() + " and " + style.getJsonKey());
+                }
+                passStyle = style;
+            }
+        }
+        if (passStyle == null) {
+            throw new IllegalArgumentException("Template '" + name + "' has no pass style key such as generic,"
+                    + " boardingPass, coupon, eventTicket or storeCard");
+        }
+
+        // Without a web service the pass cannot be updated, same as createPassJson
+        if (webServiceURL == null || webServiceURL.isEmpty()) {
+            pass.remove("webServiceURL");
+            pass.remove("authenticationToken");
+        }
+
+        substituteConstants(pass, deploymentConstants());
+
+        String skeleton = passJsonCodec.writeString(pass);
+        CompiledPassTemplate template = CompiledPassTemplate.compile(name, passStyle, aliases, skeleton);
+
+        if (!template.getSlots().containsKey("serialNumber")
+                || !"{{serialNumber}}".equals(pass.path("serialNumber").asText())) {
+            throw new IllegalArgumentException("Template '" + name + "' must use {{serialNumber}} as serialNumber");
+        }
+
+        // Any other slot would fail every render of the template, so refuse it now
+        for (Map.Entry<String, CompiledPassTemplate.SlotType> slot : template.getSlots().entrySet()) {
+            if (!RENDER_SLOTS.contains(slot.getKey())) {
+                throw new IllegalArgumentException("Template '" + name + "' uses unknown slot {{" + slot.getKey()
+                        + "}}; only " + deploymentConstants().keySet() + " and " + RENDER_SLOTS + " are filled");
+            }
+            if (slot.getValue() != CompiledPassTemplate.SlotType.STRING) {
+                throw new IllegalArgumentException("Template '" + name + "' must use {{" + slot.getKey()
+                        + "}} as a string");
+            }
+        }
+        return template;
+    }
+
+    private Map<String, String> deploymentConstants() {
+        Map<String, String> constants = new LinkedHashMap<>();
+        constants.put("passTypeIdentifier", passTypeIdentifier);
+        constants.put("teamIdentifier", teamIdentifier);
+        constants.put("organizationName", organizationName);
+        constants.put("webServiceURL", webServiceURL);
+        return constants;
+    }
+
+    /**
+     * Replace placeholders that name a deployment constant with its value
+     */
+    private void substituteConstants(JsonNode node, Map<String, String> constants) {
+        if (node.isObject()) {
+            ObjectNode object = (ObjectNode) node;
+            Iterator<Map.Entry<String, JsonNode>> fields = object.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                String constant = constantFor(field.getValue(), constants);
+                if (constant != null) {
+                    field.setValue(TextNode.valueOf(constant));
+                } else {
+                    substituteConstants(field.getValue(), constants);
+                }
+            }
+        } else if (node.isArray()) {
+            ArrayNode array = (ArrayNode) node;
+            for (int i = 0; i < array.size(); i++) {
+                String constant = constantFor(array.get(i), constants);
+                if (constant != null) {
+                    array.set(i, TextNode.valueOf(constant));
+                } else {
+                    substituteConstants(array.get(i), constants);
+                }
+            }
+        }
+    }
+
+    private String constantFor(JsonNode value, Map<String, String> constants) {
+        if (!value.isTextual()) {
+            return null;
+        }
+        Matcher matcher = CompiledPassTemplate.SLOT_PATTERN.matcher("\"" + value.asText() + "\"");
+        return matcher.matches() ? constants.get(matcher.group(1)) : null;
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.passkit.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The latest unflushed registration change per (deviceId, passTypeId,
+ * serialNumber), indexed by device and by pass.
+ *
+ * Wallet asks per device and pass type, fan-outs per pass, so both read
+ * only the changes of their group instead of every pending change. The
+ * indexes hold keys into the change map and are updated inside its
+ * per-key compute, so a change replacing one being flushed is never
+ * dropped from them.
+ */
+public final class PendingRegistrations {
+
+    private final ConcurrentHashMap<String, RegistrationJournal.Record> changes = new ConcurrentHashMap<>();
+    // (deviceId, passTypeId) to the keys of its changes
+    private final ConcurrentHashMap<String, Set<String>> byDevice = new ConcurrentHashMap<>();
+    // (passTypeId, serialNumber) to the keys of its changes
+    private final ConcurrentHashMap<String, Set<String>> byPass = new ConcurrentHashMap<>();
+
+    /**
+     * Record a change, replacing the previous one for its key
+     */
+    public void put(RegistrationJournal.Record record) {
+        String key = key(record);
+        changes.compute(key, (k, previous) -> {
+            if (previous == null) {
+                index(byDevice, group(record.getDeviceId(), record.getPassTypeId()), k);
+                index(byPass, group(record.getPassTypeId(), record.getSerialNumber()), k);
+            }
+            return record;
+        });
+    }
+
+    /**
+     * Drop a change once flushed, unless it was replaced meanwhile
+     */
+    public void remove(RegistrationJournal.Record record) {
+        changes.computeIfPresent(key(record), (k, current) -> {
+            if (current != record) {
+                return current;
+            }
+            unindex(byDevice, group(record.getDeviceId(), record.getPassTypeId()), k);
+            unindex(byPass, group(record.getPassTypeId(), record.getSerialNumber()), k);
+            return null;
+        });
+    }
+
+    public RegistrationJournal.Record get(String deviceId, String passTypeId, String serialNumber) {
+        return changes.get(key(deviceId, passTypeId, serialNumber));
+    }
+
+    /**
+     * Changes to the registrations of a device for a pass type
+     */
+    public List<RegistrationJournal.Record> forDevice(String deviceId, String passTypeId) {
+        return lookup(byDevice.get(group(deviceId, passTypeId)), new ArrayList<>());
+    }
+
+    /**
+     * Changes to the registrations for the given passes of a pass type, or
+     * for all of its passes when serialNumbers is null
+     */
+    public List<RegistrationJournal.Record> forPasses(String passTypeId, Collection<String> serialNumbers) {
+        List<RegistrationJournal.Record> records = new ArrayList<>();
+        if (serialNumbers == null) {
+            // The fan-out reads every registration of the pass type anyway
+            for (RegistrationJournal.Record record : changes.values()) {
+                if (record.getPassTypeId().equals(passTypeId)) {
+                    records.add(record);
+                }
+            }
+            return records;
+        }
+        for (String serialNumber : serialNumbers) {
+            lookup(byPass.get(group(passTypeId, serialNumber)), records);
+        }
+        return records;
+    }
+
+    public List<RegistrationJournal.Record> snapshot() {
+        return new ArrayList<>(changes.values());
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    public int size() {
+        return changes.size();
+    }
+
+    private List<RegistrationJournal.Record> lookup(Set<String> keys, List<RegistrationJournal.Record> records) {
+        if (keys != null) {
+            for (String key : keys) {
+                RegistrationJournal.Record record = changes.get(key);
+                if (record != null) {
+                    records.add(record);
+                }
+            }
+        }
+        return records;
+    }
+
+    private static void index(ConcurrentHashMap<String, Set<String>> index, String group, String key) {
+        // Added inside compute, so unindex cannot drop the set in between
+        index.compute(group, (g, keys) -> {
+            Set<String> updated = keys != null ? keys : ConcurrentHashMap.newKeySet();
+            updated.add(key);
+            return updated;
+        });
+    }
+
+    private static void unindex(ConcurrentHashMap<String, Set<String>> index, String group, String key) {
+        index.computeIfPresent(group, (g, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    private static String key(RegistrationJournal.Record record) {
+        return key(record.getDeviceId(), record.getPassTypeId(), record.getSerialNumber());
+    }
+
+    private static String key(String deviceId, String passTypeId, String serialNumber) {
+        return deviceId + '\n' + passTypeId + '\n' + serialNumber;
+    }
+
+    private static String group(String first, String second) {
+        return first + '\n' + second;
+    }
+}
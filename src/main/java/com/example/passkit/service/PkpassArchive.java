@@ -0,0 +1,50 @@
+package com.example.passkit.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A finished .pkpass archive made of one or more byte segments. Its size is
+ * known up front so it can be sent as Content-Length, and
+ * {@link #writeTo(OutputStream)} writes the segments straight to the response
+ * without assembling them first. Segments shared between archives (the
+ * prebuilt icon entries) are referenced, not copied. Instances are immutable
+ * and safe to share between concurrent downloads.
+ */
+public final class PkpassArchive {
+
+    private final byte[][] segments;
+    private final int length;
+
+    public PkpassArchive(byte[]... segments) {
+        int total = 0;
+        for (byte[] segment : segments) {
+            total += segment.length;
+        }
+        this.segments = segments;
+        this.length = total;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        for (byte[] segment : segments) {
+            out.write(segment);
+        }
+    }
+
+    /**
+     * Copy of the archive bytes, for callers that need a standalone array
+     */
+    public byte[] toByteArray() {
+        byte[] data = new byte[length];
+        int offset = 0;
+        for (byte[] segment : segments) {
+            System.arraycopy(segment, 0, data, offset, segment.length);
+            offset += segment.length;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,254 @@
+package com.example.passkit.service;
+
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes .pkpass zip archives from a precomputed layout.
+ *
+ * The icons are already compressed PNGs, so they are STORED rather than run
+ * through DEFLATE again. They are placed first in the archive, which makes
+ * their local headers, data and central directory records identical for every
+ * pass: they are framed once per asset bundle and shared by reference. Only
+ * pass.json, manifest.json and signature are deflated and framed per request,
+ * into a single buffer of exactly the right size.
+ */
+@Service
+public class PkpassWriter {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+    private static final int VERSION = 20;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    private static final byte[] PASS_JSON_NAME = "pass.json".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MANIFEST_NAME = "manifest.json".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SIGNATURE_NAME = "signature".getBytes(StandardCharsets.UTF_8);
+
+    private static final int DYNAMIC_ENTRY_COUNT = 3;
+
+    // Deflater and compressed-output scratch buffers are reused by each request thread
+    private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(
+            () -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private final ThreadLocal<byte[][]> scratch = ThreadLocal.withInitial(() -> {
+        byte[][] buffers = new byte[DYNAMIC_ENTRY_COUNT][];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new byte[8192];
+        }
+        return buffers;
+    });
+
+    private volatile StaticLayout layout;
+
+    /**
+     * Assemble the archive for one pass
+     */
+    public PkpassArchive write(byte[] passJson, byte[] manifest, byte[] signature, PassAssetBundle assets) {
+        StaticLayout staticLayout = getLayout(assets);
+        int dosTime = toDosTime(LocalDateTime.now());
+
+        Entry[] entries = {
+                deflate(PASS_JSON_NAME, passJson, 0),
+                deflate(MANIFEST_NAME, manifest, 1),
+                deflate(SIGNATURE_NAME, signature, 2)
+        };
+
+        int entriesSize = 0;
+        int centralSize = staticLayout.centralDirectory.length;
+        for (Entry entry : entries) {
+            entriesSize += LOCAL_HEADER_SIZE + entry.name.length + entry.dataLength;
+            centralSize += CENTRAL_HEADER_SIZE + entry.name.length;
+        }
+
+        byte[] body = new byte[entriesSize + centralSize + END_OF_CENTRAL_DIRECTORY_SIZE];
+        ByteBuffer out = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+
+        // Dynamic entries follow the shared icon segment
+        int[] offsets = new int[entries.length];
+        int offset = staticLayout.entries.length;
+        for (int i = 0; i < entries.length; i++) {
+            offsets[i] = offset;
+            writeLocalHeader(out, entries[i], dosTime);
+            out.put(entries[i].data, 0, entries[i].dataLength);
+            offset += LOCAL_HEADER_SIZE + entries[i].name.length + entries[i].dataLength;
+        }
+
+        int centralOffset = offset;
+        out.put(staticLayout.centralDirectory);
+        for (int i = 0; i < entries.length; i++) {
+            writeCentralHeader(out, entries[i], dosTime, offsets[i]);
+        }
+
+        writeEndOfCentralDirectory(out, staticLayout.entryCount + entries.length, centralSize, centralOffset);
+
+        return new PkpassArchive(staticLayout.entries, body);
+    }
+
+    private StaticLayout getLayout(PassAssetBundle assets) {
+        StaticLayout current = layout;
+        if (current == null || current.assets != assets) {
+            synchronized (this) {
+                current = layout;
+                if (current == null || current.assets != assets) {
+                    current = new StaticLayout(assets);
+                    layout = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private Entry deflate(byte[] name, byte[] data, int slot) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+
+        byte[][] buffers = scratch.get();
+        byte[] buffer = buffers[slot];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                buffers[slot] = buffer;
+            }
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+
+        return new Entry(name, METHOD_DEFLATED, crc.getValue(), data.length, buffer, length);
+    }
+
+    private static void writeLocalHeader(ByteBuffer out, Entry entry, int dosTime) {
+        out.putInt(LOCAL_HEADER_SIGNATURE);
+        out.putShort((short) VERSION);
+        out.putShort((short) 0); // flags
+        out.putShort((short) entry.method);
+        out.putInt(dosTime);
+        out.putInt((int) entry.crc);
+        out.putInt(entry.dataLength);
+        out.putInt(entry.size);
+        out.putShort((short) entry.name.length);
+        out.putShort((short) 0); // extra field length
+        out.put(entry.name);
+    }
+
+    private static void writeCentralHeader(ByteBuffer out, Entry entry, int dosTime, int localHeaderOffset) {
+        out.putInt(CENTRAL_HEADER_SIGNATURE);
+        out.putShort((short) VERSION); // version made by
+        out.putShort((short) VERSION); // version needed
+        out.putShort((short) 0); // flags
+        out.putShort((short) entry.method);
+        out.putInt(dosTime);
+        out.putInt((int) entry.crc);
+        out.putInt(entry.dataLength);
+        out.putInt(entry.size);
+        out.putShort((short) entry.name.length);
+        out.putShort((short) 0); // extra field length
+        out.putShort((short) 0); // comment length
+        out.putShort((short) 0); // disk number
+        out.putShort((short) 0); // internal attributes
+        out.putInt(0); // external attributes
+        out.putInt(localHeaderOffset);
+        out.put(entry.name);
+    }
+
+    private static void writeEndOfCentralDirectory(ByteBuffer out, int entryCount, int centralSize,
+            int centralOffset) {
+        out.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        out.putShort((short) 0); // this disk
+        out.putShort((short) 0); // central directory disk
+        out.putShort((short) entryCount);
+        out.putShort((short) entryCount);
+        out.putInt(centralSize);
+        out.putInt(centralOffset);
+        out.putShort((short) 0); // comment length
+    }
+
+    /**
+     * MS-DOS date (high word) and time (low word) as stored in zip headers
+     */
+    private static int toDosTime(LocalDateTime time) {
+        int date = ((time.getYear() - 1980) << 9) | (time.getMonthValue() << 5) | time.getDayOfMonth();
+        int clock = (time.getHour() << 11) | (time.getMinute() << 5) | (time.getSecond() >> 1);
+        return (date << 16) | clock;
+    }
+
+    /**
+     * Prebuilt bytes for the icon entries of one asset bundle. Icons sit at the
+     * start of the archive, so their offsets never change.
+     */
+    private static final class StaticLayout {
+        private final PassAssetBundle assets;
+        private final byte[] entries;
+        private final byte[] centralDirectory;
+        private final int entryCount;
+
+        private StaticLayout(PassAssetBundle assets) {
+            this.assets = assets;
+            List<PassAssetBundle.Asset> assetList = assets.getAssets();
+            int dosTime = toDosTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(assets.getLoadedAt()),
+                    ZoneId.systemDefault()));
+
+            Entry[] stored = new Entry[assetList.size()];
+            int entriesSize = 0;
+            int centralSize = 0;
+            for (int i = 0; i < stored.length; i++) {
+                PassAssetBundle.Asset asset = assetList.get(i);
+                stored[i] = new Entry(asset.getName().getBytes(StandardCharsets.UTF_8), METHOD_STORED,
+                        asset.getCrc32(), asset.getData().length, asset.getData(), asset.getData().length);
+                entriesSize += LOCAL_HEADER_SIZE + stored[i].name.length + stored[i].dataLength;
+                centralSize += CENTRAL_HEADER_SIZE + stored[i].name.length;
+            }
+
+            ByteBuffer entryBytes = ByteBuffer.allocate(entriesSize).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer centralBytes = ByteBuffer.allocate(centralSize).order(ByteOrder.LITTLE_ENDIAN);
+            for (Entry entry : stored) {
+                writeCentralHeader(centralBytes, entry, dosTime, entryBytes.position());
+                writeLocalHeader(entryBytes, entry, dosTime);
+                entryBytes.put(entry.data);
+            }
+
+            this.entries = entryBytes.array();
+            this.centralDirectory = centralBytes.array();
+            this.entryCount = stored.length;
+        }
+    }
+
+    private static final class Entry {
+        private final byte[] name;
+        private final int method;
+        private final long crc;
+        private final int size;
+        private final byte[] data;
+        private final int dataLength;
+
+        private Entry(byte[] name, int method, long crc, int size, byte[] data, int dataLength) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+            this.dataLength = dataLength;
+        }
+    }
+}
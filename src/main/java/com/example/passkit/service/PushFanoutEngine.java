@@ -0,0 +1,354 @@
+package com.example.passkit.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs push fan-outs in the background.
+ *
+ * Submitting returns a job at once. A worker then streams the push tokens
+ * of the job from {@link PushFanoutPlanner} and sends one push per token.
+ * Pushes in flight across all jobs are bounded, and each topic (pass type)
+ * can be held to a rate. When either limit is reached, or the APNs client
+ * has no room, the worker blocks and stops reading registrations until
+ * pushes complete, so a large fan-out never builds an unbounded backlog.
+ */
+@Service
+public class PushFanoutEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(PushFanoutEngine.class);
+
+    @Autowired
+    private PushFanoutPlanner pushFanoutPlanner;
+
+    @Autowired
+    private ApnsClient apnsClient;
+
+    @Autowired
+    private PushRetryScheduler pushRetryScheduler;
+
+    @Autowired
+    private DeadTokenPruner deadTokenPruner;
+
+    @Value("${passkit.push.fanout.workers:2}")
+    private int workerCount;
+
+    @Value("${passkit.push.fanout.max-in-flight:1000}")
+    private int maxInFlight;
+
+    // Pushes per second per topic, 0 for no limit
+    @Value("${passkit.push.fanout.rate-per-topic:0}")
+    private double ratePerTopic;
+
+    @Value("${passkit.push.fanout.retained-jobs:1000}")
+    private int retainedJobs;
+
+    private ExecutorService workers;
+    private Semaphore inFlight;
+    private final ConcurrentHashMap<String, TokenBucket> topicRates = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, FanoutJob> jobs = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedDeque<String> jobOrder = new ConcurrentLinkedDeque<>();
+
+    public enum JobStatus {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    /**
+     * Progress of one fan-out
+     */
+    public static final class FanoutJob {
+        private final String id;
+        private final String passTypeId;
+        private final Integer passCount;
+        private final Instant createdAt = Instant.now();
+        private volatile Instant startedAt;
+        private volatile Instant finishedAt;
+        private volatile JobStatus status = JobStatus.QUEUED;
+        private volatile String error;
+
+        private final AtomicLong pages = new AtomicLong();
+        private final AtomicLong registrations = new AtomicLong();
+        private final AtomicLong pushes = new AtomicLong();
+        private final AtomicLong accepted = new AtomicLong();
+        private final AtomicLong deadTokens = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong throttled = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+
+        // The reader plus every push not completed yet; the job is done at zero
+        private final AtomicInteger outstanding = new AtomicInteger(1);
+        private final CompletableFuture<FanoutJob> finished = new CompletableFuture<>();
+
+        private FanoutJob(String passTypeId, Integer passCount) {
+            this.id = UUID.randomUUID().toString();
+            this.passTypeId = passTypeId;
+            this.passCount = passCount;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getPassTypeId() {
+            return passTypeId;
+        }
+
+        public JobStatus getStatus() {
+            return status;
+        }
+
+        /**
+         * Completes with this job once every push has been answered
+         */
+        public CompletableFuture<FanoutJob> whenFinished() {
+            return finished;
+        }
+
+        public boolean isFinished() {
+            return status == JobStatus.COMPLETED || status == JobStatus.FAILED;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("id", id);
+            map.put("passTypeId", passTypeId);
+            map.put("passes", passCount != null ? passCount : "all");
+            map.put("status", status);
+            map.put("createdAt", createdAt.toString());
+            map.put("startedAt", startedAt != null ? startedAt.toString() : null);
+            map.put("finishedAt", finishedAt != null ? finishedAt.toString() : null);
+            map.put("pages", pages.get());
+            map.put("registrations", registrations.get());
+            map.put("pushes", pushes.get());
+            long done = accepted.get() + deadTokens.get() + throttled.get() + failed.get() + skipped.get();
+            map.put("completed", done);
+            map.put("inFlight", pushes.get() - done);
+            map.put("accepted", accepted.get());
+            map.put("deadTokens", deadTokens.get());
+            map.put("retries", retries.get());
+            map.put("throttled", throttled.get());
+            map.put("failed", failed.get());
+            map.put("skipped", skipped.get());
+            Instant end = finishedAt != null ? finishedAt : Instant.now();
+            if (startedAt != null) {
+                long millis = Math.max(1, end.toEpochMilli() - startedAt.toEpochMilli());
+                map.put("elapsedMillis", millis);
+                map.put("pushesPerSecond", done * 1000.0 / millis);
+            }
+            map.put("error", error);
+            return map;
+        }
+
+        private void record(ApnsClient.PushResult result) {
+            if (result.isAccepted()) {
+                accepted.incrementAndGet();
+            } else if (result.isDeadToken()) {
+                deadTokens.incrementAndGet();
+            } else if (result.isThrottled()) {
+                throttled.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+        }
+
+        private void finishOne() {
+            if (outstanding.decrementAndGet() == 0) {
+                finishedAt = Instant.now();
+                status = error != null ? JobStatus.FAILED : JobStatus.COMPLETED;
+                finished.complete(this);
+            }
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        workers = Executors.newFixedThreadPool(workerCount, new CustomizableThreadFactory("push-fanout-"));
+        inFlight = new Semaphore(maxInFlight);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Start notifying the devices of the given passes of a pass type (all
+     * of its passes when serialNumbers is null)
+     */
+    public FanoutJob submit(String passTypeId, Collection<String> serialNumbers) {
+        FanoutJob job = new FanoutJob(passTypeId, serialNumbers != null ? serialNumbers.size() : null);
+        List<String> serials = serialNumbers != null ? new ArrayList<>(serialNumbers) : null;
+
+        jobs.put(job.id, job);
+        jobOrder.addLast(job.id);
+        evictFinishedJobs();
+
+        workers.execute(() -> run(job, serials));
+        return job;
+    }
+
+    public FanoutJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Retained jobs, newest first
+     */
+    public List<FanoutJob> getJobs() {
+        List<FanoutJob> recent = new ArrayList<>();
+        for (var ids = jobOrder.descendingIterator(); ids.hasNext(); ) {
+            FanoutJob job = jobs.get(ids.next());
+            if (job != null) {
+                recent.add(job);
+            }
+        }
+        return recent;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Long> byStatus = new LinkedHashMap<>();
+        for (JobStatus status : JobStatus.values()) {
+            byStatus.put(status.name().toLowerCase(), 0L);
+        }
+        for (FanoutJob job : jobs.values()) {
+            byStatus.merge(job.status.name().toLowerCase(), 1L, Long::sum);
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("jobs", byStatus);
+        stats.put("inFlight", maxInFlight - inFlight.availablePermits());
+        stats.put("maxInFlight", maxInFlight);
+        stats.put("ratePerTopic", ratePerTopic);
+        return stats;
+    }
+
+    private void run(FanoutJob job, List<String> serialNumbers) {
+        job.startedAt = Instant.now();
+        job.status = JobStatus.RUNNING;
+        try {
+            PushFanoutPlanner.PlanCursor cursor = pushFanoutPlanner.open(job.passTypeId, serialNumbers);
+            TokenBucket rate = ratePerTopic > 0
+                    ? topicRates.computeIfAbsent(job.passTypeId, topic -> new TokenBucket(ratePerTopic))
+                    : null;
+
+            for (List<String> tokens = cursor.next(); !tokens.isEmpty(); tokens = cursor.next()) {
+                job.pages.incrementAndGet();
+                job.registrations.set(cursor.getRegistrations());
+                for (String token : tokens) {
+                    send(job, token, rate);
+                }
+            }
+            job.registrations.set(cursor.getRegistrations());
+
+            logger.info("Fan-out {} for {} planned {} push(es) for {} registration(s)",
+                    job.id, job.passTypeId, job.pushes.get(), job.registrations.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.error = "Interrupted";
+        } catch (Exception e) {
+            logger.error("Fan-out {} for {} failed: {}", job.id, job.passTypeId, e.getMessage(), e);
+            job.error = e.getMessage() != null ? e.getMessage() : e.toString();
+        } finally {
+            job.finishOne();
+        }
+    }
+
+    private void send(FanoutJob job, String pushToken, TokenBucket rate) throws InterruptedException {
+        job.pushes.incrementAndGet();
+        if (!apnsClient.isEnabled()) {
+            job.skipped.incrementAndGet();
+            return;
+        }
+
+        job.outstanding.incrementAndGet();
+        attempt(job, pushToken, rate, 1);
+    }
+
+    /**
+     * Send one attempt of a push. The job stays outstanding until the last
+     * attempt is answered.
+     */
+    private void attempt(FanoutJob job, String pushToken, TokenBucket rate, int attempt) throws InterruptedException {
+        if (rate != null) {
+            rate.acquire();
+        }
+        inFlight.acquire();
+        long sentAt = System.currentTimeMillis();
+        apnsClient.sendPassUpdate(pushToken, job.passTypeId).whenComplete((result, error) -> {
+            inFlight.release();
+            ApnsClient.PushResult outcome = error != null
+                    ? new ApnsClient.PushResult(pushToken, 0, error.toString(), null)
+                    : result;
+
+            if (outcome.isRetryable()
+                    && pushRetryScheduler.retry(attempt, () -> retry(job, pushToken, rate, attempt + 1))) {
+                job.retries.incrementAndGet();
+                return;
+            }
+            if (outcome.isBadDeviceToken()) {
+                deadTokenPruner.report(pushToken, null, sentAt);
+            } else if (outcome.isUnregistered()) {
+                // Devices share one token across pass types; 410 only retires it for this topic
+                deadTokenPruner.report(pushToken, job.passTypeId, sentAt);
+            }
+            job.record(outcome);
+            job.finishOne();
+        });
+    }
+
+    private void retry(FanoutJob job, String pushToken, TokenBucket rate, int attempt) {
+        try {
+            attempt(job, pushToken, rate, attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.failed.incrementAndGet();
+            job.finishOne();
+        }
+    }
+
+    private void evictFinishedJobs() {
+        while (jobOrder.size() > retainedJobs) {
+            String oldest = jobOrder.peekFirst();
+            FanoutJob job = oldest != null ? jobs.get(oldest) : null;
+            if (job != null && !job.isFinished()) {
+                // Keep running jobs visible, even past the limit
+                return;
+            }
+            jobOrder.remove(oldest);
+            jobs.remove(oldest);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.passkit.service;
+
+import com.example.passkit.repository.DeviceRegistrationRepository;
+import com.example.passkit.repository.PushTokenRow;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Turns changed passes into the pushes that announce them.
+ *
+ * A Wallet push carries no pass: the device answers it by asking which of
+ * its passes of that pass type changed. One push per push token and pass
+ * type therefore covers every changed pass the device holds, however many
+ * there are. A {@link PlanCursor} streams the registrations of the changed
+ * passes page by page and yields each push token only the first time it is
+ * seen. Registrations changed but not flushed yet are taken from the pending
+ * overlay instead of their pages, so an unregistered device is not notified
+ * and a re-registered one gets its new token.
+ */
+@Service
+public class PushFanoutPlanner {
+
+    @Autowired
+    private DeviceRegistrationRepository deviceRegistrationRepository;
+
+    @Autowired
+    private PassRegistrationService passRegistrationService;
+
+    // Serial numbers per IN (...) lookup
+    @Value("${passkit.push.plan.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${passkit.push.plan.page-size:1000}")
+    private int pageSize;
+
+    private final AtomicLong plans = new AtomicLong();
+    private final AtomicLong registrations = new AtomicLong();
+    private final AtomicLong pushes = new AtomicLong();
+
+    /**
+     * Plan the pushes for changed passes of one pass type, or for all of its
+     * passes when serialNumbers is null
+     */
+    public PlanCursor open(String passTypeId, Collection<String> serialNumbers) {
+        plans.incrementAndGet();
+        return new PlanCursor(passTypeId, serialNumbers);
+    }
+
+    public Map<String, Object> getStats() {
+        long registrationTotal = registrations.get();
+        long pushTotal = pushes.get();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("plans", plans.get());
+        stats.put("registrations", registrationTotal);
+        stats.put("pushes", pushTotal);
+        // Registrations covered per push sent; 1.0 means nothing was deduplicated
+        stats.put("dedupRatio", pushTotal > 0 ? (double) registrationTotal / pushTotal : 1.0);
+        return stats;
+    }
+
+    /**
+     * Distinct push tokens of one plan, read with keyset pagination so the
+     * registrations are never all in memory. Not thread safe.
+     */
+    public final class PlanCursor {
+        private final String passTypeId;
+        private final Set<String> serialNumbers;
+        private final List<List<String>> chunks = new ArrayList<>();
+        private int chunk;
+        private long afterId;
+        private boolean databaseDone;
+        private boolean overlayDone;
+
+        // Pending changes, taken when the plan opens; a change flushed meanwhile is
+        // still skipped in the pages and read from here
+        private final List<RegistrationJournal.Record> pendingChanges;
+        private final Set<String> pendingKeys = new HashSet<>();
+
+        private final Set<String> seen = new HashSet<>();
+        private long registrationCount;
+
+        private PlanCursor(String passTypeId, Collection<String> serialNumbers) {
+            this.passTypeId = passTypeId;
+            this.serialNumbers = serialNumbers != null ? new LinkedHashSet<>(serialNumbers) : null;
+            if (this.serialNumbers != null) {
+                List<String> all = new ArrayList<>(this.serialNumbers);
+                for (int from = 0; from < all.size(); from += chunkSize) {
+                    chunks.add(all.subList(from, Math.min(from + chunkSize, all.size())));
+                }
+                databaseDone = chunks.isEmpty();
+            }
+
+            pendingChanges = passRegistrationService.getPendingChanges(passTypeId, this.serialNumbers);
+            for (RegistrationJournal.Record record : pendingChanges) {
+                pendingKeys.add(key(record.getDeviceId(), record.getSerialNumber()));
+            }
+        }
+
+        public String getPassTypeId() {
+            return passTypeId;
+        }
+
+        /**
+         * Push tokens not returned before, or an empty list once every
+         * registration has been read
+         */
+        public List<String> next() {
+            while (!databaseDone) {
+                List<PushTokenRow> page = serialNumbers == null
+                        ? deviceRegistrationRepository.findPushTokenPageForPassType(passTypeId, afterId,
+                                PageRequest.of(0, pageSize))
+                        : deviceRegistrationRepository.findPushTokenPage(passTypeId, chunks.get(chunk), afterId,
+                                PageRequest.of(0, pageSize));
+
+                if (page.size() < pageSize) {
+                    // Last page of this chunk
+                    afterId = 0;
+                    chunk++;
+                    databaseDone = serialNumbers == null || chunk >= chunks.size();
+                } else {
+                    afterId = page.get(page.size() - 1).getId();
+                }
+
+                List<String> tokens = new ArrayList<>();
+                for (PushTokenRow row : page) {
+                    if (!pendingKeys.contains(key(row.getDeviceId(), row.getSerialNumber()))) {
+                        add(row.getPushToken(), tokens);
+                    }
+                }
+                if (!tokens.isEmpty()) {
+                    return tokens;
+                }
+            }
+
+            if (!overlayDone) {
+                // Registrations acknowledged but not flushed yet are not in the pages
+                overlayDone = true;
+                List<String> tokens = new ArrayList<>();
+                for (RegistrationJournal.Record record : pendingChanges) {
+                    if (record.getOperation() == RegistrationJournal.Operation.REGISTER) {
+                        add(record.getPushToken(), tokens);
+                    }
+                }
+                return tokens;
+            }
+            return List.of();
+        }
+
+        /**
+         * Registrations read so far
+         */
+        public long getRegistrations() {
+            return registrationCount;
+        }
+
+        /**
+         * Distinct push tokens returned so far
+         */
+        public long getPushes() {
+            return seen.size();
+        }
+
+        private String key(String deviceId, String serialNumber) {
+            return deviceId + '\n' + serialNumber;
+        }
+
+        private void add(String token, List<String> tokens) {
+            if (token == null || token.isEmpty()) {
+                return;
+            }
+            registrationCount++;
+            registrations.incrementAndGet();
+            if (seen.add(token)) {
+                pushes.incrementAndGet();
+                tokens.add(token);
+            }
+        }
+    }
+}
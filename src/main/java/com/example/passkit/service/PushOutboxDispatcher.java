@@ -0,0 +1,272 @@
+package com.example.passkit.service;
+
+import com.example.passkit.model.PushOutboxEntry;
+import com.example.passkit.repository.PushOutboxRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the pushes recorded in the push outbox.
+ *
+ * A pass change adds its outbox row in the change's own transaction,
+ * debounced: the row becomes due debounce-ms after the last change, but no
+ * later than max-delay-ms after the first. Worker threads on every node
+ * claim due rows in batches, hand them to {@link APNsService} as one
+ * fan-out per pass type, and mark them dispatched once the fan-out
+ * completes. A claim is a lease, renewed by a heartbeat while its fan-out
+ * runs: rows of a node that dies mid-fan-out are claimed again by another
+ * node when the lease runs out. Only the lease holder can mark rows
+ * dispatched or release them, so a node that lost its lease (say, after a
+ * long pause) cannot overwrite a claim another node has since made.
+ */
+@Service
+public class PushOutboxDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(PushOutboxDispatcher.class);
+
+    @Autowired
+    private PushOutboxRepository pushOutboxRepository;
+
+    @Autowired
+    private APNsService apnsService;
+
+    @Value("${passkit.push.debounce-ms:2000}")
+    private long debounceMillis;
+
+    @Value("${passkit.push.max-delay-ms:10000}")
+    private long maxDelayMillis;
+
+    // Rows due this soon after a claim join it, so their devices are
+    // deduplicated together instead of being notified again moments later
+    @Value("${passkit.push.batch-window-ms:500}")
+    private long batchWindowMillis;
+
+    @Value("${passkit.push.outbox.workers:2}")
+    private int workerCount;
+
+    @Value("${passkit.push.outbox.poll-ms:200}")
+    private long pollMillis;
+
+    @Value("${passkit.push.outbox.batch-size:500}")
+    private int batchSize;
+
+    // Renewed every third of it while the fan-out runs
+    @Value("${passkit.push.outbox.lease-ms:60000}")
+    private long leaseMillis;
+
+    @Value("${passkit.push.outbox.retry-delay-ms:5000}")
+    private long retryDelayMillis;
+
+    @Value("${passkit.push.outbox.retention-ms:3600000}")
+    private long retentionMillis;
+
+    // Must differ between nodes sharing a database; defaults to the host name
+    @Value("${passkit.push.outbox.node-id:}")
+    private String nodeId;
+
+    private ScheduledExecutorService workers;
+
+    // Rows claimed by this node whose fan-out has not completed
+    private final Set<Long> leased = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+    private final AtomicLong purged = new AtomicLong();
+    private final AtomicLong lostLeases = new AtomicLong();
+
+    @PostConstruct
+    public void init() throws Exception {
+        if (nodeId == null || nodeId.isBlank()) {
+            nodeId = InetAddress.getLocalHost().getHostName();
+        }
+
+        // Rows this node had leased before a restart need not wait for the lease to run out
+        int reclaimed = pushOutboxRepository.releaseOwnedBy(nodeId);
+        if (reclaimed > 0) {
+            logger.info("Released {} push outbox row(s) leased by {} before restart", reclaimed, nodeId);
+        }
+
+        workers = Executors.newScheduledThreadPool(workerCount + 2, new CustomizableThreadFactory("push-outbox-"));
+        for (int i = 0; i < workerCount; i++) {
+            workers.scheduleWithFixedDelay(this::poll, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+        }
+        long heartbeatMillis = Math.max(1, leaseMillis / 3);
+        workers.scheduleWithFixedDelay(this::renewLeases, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+        workers.scheduleWithFixedDelay(this::purge, retentionMillis, retentionMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Undelivered rows stay in the outbox for the next start or another node
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Notify the devices of a pass once its changes settle. Must be called in
+     * the transaction that changes the pass.
+     */
+    public void enqueue(String passTypeId, String serialNumber) {
+        long now = System.currentTimeMillis();
+        pushOutboxRepository.enqueue(passTypeId, serialNumber, now + debounceMillis, now + maxDelayMillis);
+        enqueued.incrementAndGet();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("nodeId", nodeId);
+        stats.put("pending", pushOutboxRepository.countPending());
+        stats.put("enqueued", enqueued.get());
+        stats.put("claimed", claimed.get());
+        stats.put("dispatched", dispatched.get());
+        stats.put("released", released.get());
+        stats.put("purged", purged.get());
+        stats.put("leased", leased.size());
+        stats.put("lostLeases", lostLeases.get());
+        stats.put("debounceMillis", debounceMillis);
+        stats.put("maxDelayMillis", maxDelayMillis);
+        return stats;
+    }
+
+    private void poll() {
+        try {
+            // Keep claiming while batches come back full
+            while (dispatchBatch() == batchSize) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Failed to dispatch push outbox: {}", e.getMessage(), e);
+        }
+    }
+
+    private int dispatchBatch() {
+        long now = System.currentTimeMillis();
+        List<PushOutboxEntry> rows = pushOutboxRepository.claim(nodeId, now, now + batchWindowMillis,
+                now + leaseMillis, batchSize);
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        claimed.addAndGet(rows.size());
+        rows.forEach(row -> leased.add(row.getId()));
+
+        // One fan-out per pass type, so a device holding several of these passes gets one push
+        Map<String, List<String>> serialNumbersByPassType = new LinkedHashMap<>();
+        Map<String, List<Long>> idsByPassType = new LinkedHashMap<>();
+        for (PushOutboxEntry row : rows) {
+            serialNumbersByPassType.computeIfAbsent(row.getPassTypeId(), k -> new ArrayList<>())
+                    .add(row.getSerialNumber());
+            idsByPassType.computeIfAbsent(row.getPassTypeId(), k -> new ArrayList<>()).add(row.getId());
+        }
+
+        List<PushFanoutEngine.FanoutJob> jobs;
+        try {
+            jobs = apnsService.notifyPassUpdates(serialNumbersByPassType);
+        } catch (Exception e) {
+            logger.error("Failed to start fan-out for {} outbox row(s): {}", rows.size(), e.getMessage(), e);
+            release(idsByPassType.values());
+            return rows.size();
+        }
+
+        for (PushFanoutEngine.FanoutJob job : jobs) {
+            List<Long> ids = idsByPassType.get(job.getPassTypeId());
+            job.whenFinished().thenAccept(finished -> complete(finished, ids));
+        }
+        return rows.size();
+    }
+
+    private void complete(PushFanoutEngine.FanoutJob job, List<Long> ids) {
+        try {
+            if (job.getStatus() == PushFanoutEngine.JobStatus.COMPLETED) {
+                int held = held(ids);
+                int marked = pushOutboxRepository.markDispatched(nodeId, ids, System.currentTimeMillis());
+                dispatched.addAndGet(marked);
+                leaseLost(held - marked);
+            } else {
+                logger.warn("Fan-out {} failed, retrying {} outbox row(s)", job.getId(), ids.size());
+                release(List.of(ids));
+            }
+        } catch (Exception e) {
+            // The lease runs out and the rows are claimed again
+            logger.error("Failed to record outcome of fan-out {}: {}", job.getId(), e.getMessage(), e);
+        } finally {
+            leased.removeAll(ids);
+        }
+    }
+
+    private void release(Iterable<List<Long>> idGroups) {
+        long retryAt = System.currentTimeMillis() + retryDelayMillis;
+        for (List<Long> ids : idGroups) {
+            try {
+                int held = held(ids);
+                int freed = pushOutboxRepository.release(nodeId, ids, retryAt);
+                released.addAndGet(freed);
+                leaseLost(held - freed);
+            } finally {
+                leased.removeAll(ids);
+            }
+        }
+    }
+
+    private void renewLeases() {
+        if (leased.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(leased);
+        try {
+            List<Long> lost = pushOutboxRepository.extendLeases(nodeId, ids, System.currentTimeMillis() + leaseMillis);
+            // Rows whose fan-out completed since the snapshot are not lost; stop renewing the rest
+            lost.removeIf(id -> !leased.remove(id));
+            leaseLost(lost.size());
+        } catch (Exception e) {
+            logger.error("Failed to renew lease of {} push outbox row(s): {}", ids.size(), e.getMessage(), e);
+        }
+    }
+
+    // Rows a heartbeat already found lost are not counted again
+    private int held(List<Long> ids) {
+        return (int) ids.stream().filter(leased::contains).count();
+    }
+
+    private void leaseLost(int rows) {
+        if (rows > 0) {
+            // Another node claimed them after the lease ran out and pushes them again
+            lostLeases.addAndGet(rows);
+            logger.warn("Lease of {} push outbox row(s) held by {} was lost", rows, nodeId);
+        }
+    }
+
+    private void purge() {
+        try {
+            int deleted = pushOutboxRepository.deleteDispatchedBefore(System.currentTimeMillis() - retentionMillis);
+            purged.addAndGet(deleted);
+        } catch (Exception e) {
+            logger.error("Failed to purge push outbox: {}", e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.passkit.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delays pushes that failed transiently (429, 5xx, no response) before
+ * they are sent again.
+ *
+ * The n-th retry waits base-ms * 2^(n-1), capped at max-ms, with jitter:
+ * half of the delay is fixed and half random, so pushes throttled together
+ * do not come back together. Waiting retries sit on a {@link TimingWheel},
+ * not on sleeping threads.
+ */
+@Service
+public class PushRetryScheduler {
+
+    @Value("${passkit.push.retry.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${passkit.push.retry.base-ms:1000}")
+    private long baseMillis;
+
+    @Value("${passkit.push.retry.max-ms:60000}")
+    private long maxMillis;
+
+    @Value("${passkit.push.retry.tick-ms:100}")
+    private long tickMillis;
+
+    @Value("${passkit.push.retry.wheel-size:512}")
+    private int wheelSize;
+
+    // Retries block here, not on the wheel, while the fan-out limits are reached
+    @Value("${passkit.push.retry.threads:2}")
+    private int threadCount;
+
+    private ExecutorService executor;
+    private TimingWheel wheel;
+
+    private final AtomicLong scheduled = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newFixedThreadPool(threadCount, new CustomizableThreadFactory("push-retry-"));
+        wheel = new TimingWheel("push-retry-wheel", tickMillis, wheelSize, executor);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Dropped retries are sent again when their outbox rows are claimed after restart
+        wheel.stop();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Schedule the retry following the given attempt (1 for the first send).
+     * Returns false, without scheduling, once max-attempts have been made.
+     */
+    public boolean retry(int attempt, Runnable task) {
+        if (attempt >= maxAttempts) {
+            exhausted.incrementAndGet();
+            return false;
+        }
+        scheduled.incrementAndGet();
+        wheel.schedule(task, backoffMillis(attempt));
+        return true;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("scheduled", scheduled.get());
+        stats.put("waiting", wheel.size());
+        stats.put("exhausted", exhausted.get());
+        stats.put("maxAttempts", maxAttempts);
+        return stats;
+    }
+
+    private long backoffMillis(int attempt) {
+        long delay = Math.min(maxMillis, baseMillis << Math.min(attempt - 1, 30));
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.passkit.service;
+
+import com.example.passkit.repository.PassMetadataRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Legacy demo allocator: random 5-digit serial numbers, probing the database
+ * until an unused one is found. The number of probes grows as the table fills
+ * and concurrent requests can pick the same value, so use it for demos only.
+ */
+@Service
+@ConditionalOnProperty(name = "passkit.serial.strategy", havingValue = "random")
+public class RandomSerialNumberAllocator implements SerialNumberAllocator {
+
+    @Autowired
+    private PassMetadataRepository passMetadataRepository;
+
+    private final Random random = new Random();
+
+    @Override
+    public String allocate() {
+        String serialNumber;
+        do {
+            serialNumber = String.format("%05d", random.nextInt(100000));
+        } while (passMetadataRepository.existsBySerialNumber(serialNumber));
+        return serialNumber;
+    }
+
+    @Override
+    public List<String> allocate(int count) {
+        // Probing only checks the database, so also skip values drawn earlier in this batch
+        Set<String> serialNumbers = new LinkedHashSet<>();
+        while (serialNumbers.size() < count) {
+            serialNumbers.add(allocate());
+        }
+        return new ArrayList<>(serialNumbers);
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.passkit.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of device registration changes that have not reached
+ * the database yet.
+ *
+ * Records are appended to an in-memory buffer and made durable with group
+ * commit: the first caller to {@link #sync(long)} writes and fsyncs the
+ * records of every caller waiting behind it in one go. The journal is split
+ * into numbered segments. {@link #rotate()} seals the active segment, and
+ * sealed segments are deleted once their records are in the database. Each
+ * record carries a CRC, so a record torn by a crash ends the replay of its
+ * segment.
+ */
+public final class RegistrationJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(RegistrationJournal.class);
+
+    private static final String PREFIX = "registrations-";
+    private static final String SUFFIX = ".journal";
+
+    public enum Operation {
+        REGISTER,
+        UNREGISTER
+    }
+
+    /**
+     * One journaled registration change
+     */
+    public static final class Record {
+        private final Operation operation;
+        private final String deviceId;
+        private final String passTypeId;
+        private final String serialNumber;
+        private final String pushToken;
+        private final long timestamp;
+
+        public Record(Operation operation, String deviceId, String passTypeId, String serialNumber,
+                String pushToken, long timestamp) {
+            this.operation = operation;
+            this.deviceId = deviceId;
+            this.passTypeId = passTypeId;
+            this.serialNumber = serialNumber;
+            this.pushToken = pushToken;
+            this.timestamp = timestamp;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        public String getDeviceId() {
+            return deviceId;
+        }
+
+        public String getPassTypeId() {
+            return passTypeId;
+        }
+
+        public String getSerialNumber() {
+            return serialNumber;
+        }
+
+        public String getPushToken() {
+            return pushToken;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+
+    private final Path directory;
+
+    // Guarded by this: records appended but not yet written
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(4096);
+    private long appendedSequence;
+
+    // Guarded by syncLock: the active segment and what it holds durably
+    private final Object syncLock = new Object();
+    private FileChannel channel;
+    private long activeSegment;
+    private volatile long syncedSequence;
+
+    public RegistrationJournal(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Replay the records of all existing segments, oldest first, then open a
+     * new active segment after them
+     */
+    public void open(Consumer<Record> replay) throws IOException {
+        Files.createDirectories(directory);
+
+        long last = 0;
+        int replayed = 0;
+        for (Map.Entry<Long, Path> segment : listSegments().entrySet()) {
+            int records = replaySegment(segment.getValue(), replay);
+            if (records == 0) {
+                Files.delete(segment.getValue());
+            }
+            replayed += records;
+            last = segment.getKey();
+        }
+
+        synchronized (syncLock) {
+            activeSegment = last + 1;
+            channel = openSegment(activeSegment);
+        }
+
+        if (replayed > 0) {
+            logger.info("Replayed {} pending registration change(s) from {}", replayed, directory);
+        }
+    }
+
+    /**
+     * Buffer a record for the active segment
+     *
+     * @return the sequence to pass to {@link #sync(long)}
+     */
+    public synchronized long append(Record record) throws IOException {
+        byte[] payload = encode(record);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        DataOutputStream out = new DataOutputStream(pending);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeInt((int) crc.getValue());
+        return ++appendedSequence;
+    }
+
+    /**
+     * Block until the record with the given sequence is on disk
+     */
+    public void sync(long sequence) throws IOException {
+        if (syncedSequence >= sequence) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (syncedSequence >= sequence) {
+                // Written by the group commit of another caller
+                return;
+            }
+            writePending();
+        }
+    }
+
+    /**
+     * Make everything appended so far durable, seal the active segment and
+     * start a new one
+     *
+     * @return the number of the sealed segment
+     */
+    public long rotate() throws IOException {
+        synchronized (syncLock) {
+            writePending();
+            channel.close();
+            long sealed = activeSegment;
+            activeSegment++;
+            channel = openSegment(activeSegment);
+            return sealed;
+        }
+    }
+
+    /**
+     * Delete sealed segments up to and including the given number, after
+     * their records have been applied
+     */
+    public void deleteThrough(long segment) throws IOException {
+        for (Map.Entry<Long, Path> entry : listSegments().entrySet()) {
+            if (entry.getKey() <= segment) {
+                Files.deleteIfExists(entry.getValue());
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            writePending();
+            channel.close();
+        }
+    }
+
+    private void writePending() throws IOException {
+        byte[] data;
+        long upTo;
+        synchronized (this) {
+            data = pending.toByteArray();
+            upTo = appendedSequence;
+            pending = new ByteArrayOutputStream(Math.max(4096, data.length));
+        }
+
+        if (data.length > 0) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        syncedSequence = upTo;
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(segmentPath(number), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("%s%012d%s", PREFIX, number, SUFFIX));
+    }
+
+    private TreeMap<Long, Path> listSegments() throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())),
+                            path);
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring unexpected journal file {}", path);
+                }
+            }
+        }
+        return segments;
+    }
+
+    private int replaySegment(Path path, Consumer<Record> replay) throws IOException {
+        List<Record> records = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(path)))) {
+            while (true) {
+                int length = in.readInt();
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                int expected = in.readInt();
+
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != expected) {
+                    logger.warn("Journal {} has a corrupt record, ignoring the rest of the segment", path);
+                    break;
+                }
+                records.add(decode(payload));
+            }
+        } catch (EOFException e) {
+            // End of segment, possibly a record cut short by a crash
+        }
+
+        records.forEach(replay);
+        return records.size();
+    }
+
+    private static byte[] encode(Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(record.operation.ordinal());
+        out.writeUTF(record.deviceId);
+        out.writeUTF(record.passTypeId);
+        out.writeUTF(record.serialNumber);
+        out.writeUTF(record.pushToken != null ? record.pushToken : "");
+        out.writeLong(record.timestamp);
+        return bytes.toByteArray();
+    }
+
+    private static Record decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        Operation operation = Operation.values()[in.readByte()];
+        String deviceId = in.readUTF();
+        String passTypeId = in.readUTF();
+        String serialNumber = in.readUTF();
+        String pushToken = in.readUTF();
+        long timestamp = in.readLong();
+        return new Record(operation, deviceId, passTypeId, serialNumber,
+                pushToken.isEmpty() ? null : pushToken, timestamp);
+    }
+}
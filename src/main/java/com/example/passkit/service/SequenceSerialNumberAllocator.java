@@ -0,0 +1,60 @@
+package com.example.passkit.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+/**
+ * Allocates serial numbers from a database sequence, reserving a whole block
+ * of values per round-trip. Values are unique across all nodes sharing the
+ * database; a block that is not used up before a restart is simply skipped.
+ * The prefix keeps them out of the plain numbers clients choose as serials.
+ */
+@Service
+@ConditionalOnProperty(name = "passkit.serial.strategy", havingValue = "sequence", matchIfMissing = true)
+public class SequenceSerialNumberAllocator implements SerialNumberAllocator {
+
+    private static final Logger logger = LoggerFactory.getLogger(SequenceSerialNumberAllocator.class);
+
+    private static final String SEQUENCE_NAME = "pass_serial_number";
+
+    @Autowired
+    private SequenceService sequenceService;
+
+    @Value("${passkit.serial.block-size:1000}")
+    private int blockSize;
+
+    @Value("${passkit.serial.prefix:PK}")
+    private String prefix;
+
+    @Value("${passkit.serial.format:%010d}")
+    private String format;
+
+    private long next;
+    private long end;
+
+    @Override
+    public synchronized String allocate() {
+        if (next >= end) {
+            reserveBlock();
+        }
+        return prefix + String.format(format, next++);
+    }
+
+    private void reserveBlock() {
+        long first;
+        try {
+            first = sequenceService.reserve(SEQUENCE_NAME, blockSize);
+        } catch (DataIntegrityViolationException e) {
+            // Another node created the counter row at the same time; it exists now
+            first = sequenceService.reserve(SEQUENCE_NAME, blockSize);
+        }
+        next = first;
+        end = first + blockSize;
+        logger.debug("Reserved serial number block [{}, {})", next, end);
+    }
+}
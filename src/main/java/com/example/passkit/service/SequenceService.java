@@ -0,0 +1,51 @@
+package com.example.passkit.service;
+
+import com.example.passkit.model.SequenceCounter;
+import com.example.passkit.repository.SequenceCounterRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Hands out ranges of values from named database counters
+ */
+@Service
+public class SequenceService {
+
+    @Autowired
+    private SequenceCounterRepository sequenceCounterRepository;
+
+    /**
+     * Reserve {@code count} consecutive values in a transaction of their own, so
+     * the counter row is only locked for the duration of the increment.
+     *
+     * @return the first reserved value
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public long reserve(String name, int count) {
+        return increment(name, count);
+    }
+
+    /**
+     * Take {@code count} consecutive values inside the caller's transaction.
+     * The counter row stays locked until that transaction ends, so writers
+     * using the same counter commit in the order of the values they took.
+     *
+     * @return the first value taken
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public long next(String name, int count) {
+        return increment(name, count);
+    }
+
+    private long increment(String name, int count) {
+        SequenceCounter counter = sequenceCounterRepository.findByNameForUpdate(name)
+                .orElseGet(() -> sequenceCounterRepository.saveAndFlush(new SequenceCounter(name, 1L)));
+
+        long first = counter.getNextValue();
+        counter.setNextValue(first + count);
+        sequenceCounterRepository.save(counter);
+        return first;
+    }
+}
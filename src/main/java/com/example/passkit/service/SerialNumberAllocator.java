@@ -0,0 +1,27 @@
+package com.example.passkit.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Source of serial numbers for new passes. The implementation is selected with
+ * {@code passkit.serial.strategy} (sequence, time or random).
+ */
+public interface SerialNumberAllocator {
+
+    /**
+     * Allocate one unused serial number
+     */
+    String allocate();
+
+    /**
+     * Allocate {@code count} distinct unused serial numbers
+     */
+    default List<String> allocate(int count) {
+        List<String> serialNumbers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            serialNumbers.add(allocate());
+        }
+        return serialNumbers;
+    }
+}
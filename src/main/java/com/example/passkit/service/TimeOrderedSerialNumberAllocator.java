@@ -0,0 +1,76 @@
+package com.example.passkit.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.security.SecureRandom;
+
+/**
+ * Allocates ULID-style serial numbers: 48 bits of millisecond timestamp followed
+ * by 80 random bits, encoded as 26 Crockford base32 characters. Serial numbers
+ * sort by creation time and need no database round-trip. Within the same
+ * millisecond the random part is incremented, so one node never repeats a value.
+ */
+@Service
+@ConditionalOnProperty(name = "passkit.serial.strategy", havingValue = "time")
+public class TimeOrderedSerialNumberAllocator implements SerialNumberAllocator {
+
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    @Value("${passkit.serial.prefix:}")
+    private String prefix;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private long lastTime;
+    private long randomHigh; // upper 16 of the 80 random bits
+    private long randomLow; // lower 64 of the 80 random bits
+
+    @Override
+    public synchronized String allocate() {
+        long time = System.currentTimeMillis();
+
+        if (time > lastTime) {
+            lastTime = time;
+            randomHigh = random.nextInt(1 << 16);
+            randomLow = random.nextLong();
+        } else {
+            // Same millisecond (or clock moved back): keep the order by counting up
+            randomLow++;
+            if (randomLow == 0) {
+                randomHigh = (randomHigh + 1) & 0xFFFF;
+                if (randomHigh == 0) {
+                    // 80-bit space exhausted within one millisecond; move to the next
+                    lastTime++;
+                }
+            }
+        }
+
+        return prefix + encode(lastTime, randomHigh, randomLow);
+    }
+
+    private static String encode(long time, long high, long low) {
+        char[] chars = new char[26];
+
+        for (int i = 9; i >= 0; i--) {
+            chars[i] = ALPHABET[(int) (time & 31)];
+            time >>>= 5;
+        }
+
+        for (int i = 0; i < 16; i++) {
+            int shift = 75 - 5 * i;
+            long bits;
+            if (shift >= 64) {
+                bits = high >>> (shift - 64);
+            } else if (shift + 5 <= 64) {
+                bits = low >>> shift;
+            } else {
+                bits = (high << (64 - shift)) | (low >>> shift);
+            }
+            chars[10 + i] = ALPHABET[(int) (bits & 31)];
+        }
+
+        return new String(chars);
+    }
+}
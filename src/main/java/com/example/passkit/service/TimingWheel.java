@@ -0,0 +1,131 @@
+package com.example.passkit.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timing wheel: runs tasks after a delay with one thread however many
+ * are waiting.
+ *
+ * Time is cut into ticks and the wheel has one bucket per tick, reused every
+ * revolution. A task goes into the bucket of the tick it is due in, with
+ * the number of whole revolutions still to wait. Each tick the thread walks
+ * only its bucket, so scheduling is O(1) and a tick costs the tasks in one
+ * bucket, not all of them. Tasks run on the given executor, up to one tick
+ * late.
+ */
+public final class TimingWheel {
+
+    private static final class Timeout {
+        private final Runnable task;
+        private final long deadlineTick;
+        private long remainingRounds;
+
+        private Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    // Touched only by the wheel thread
+    private final List<List<Timeout>> buckets;
+    private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Executor executor;
+    private final Thread thread;
+    private final long startNanos;
+
+    private long tick;
+
+    /**
+     * @param wheelSize Number of buckets, rounded up to a power of two
+     */
+    public TimingWheel(String name, long tickMillis, int wheelSize, Executor executor) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int buckets = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.mask = buckets - 1;
+        this.buckets = new ArrayList<>(buckets);
+        for (int i = 0; i < buckets; i++) {
+            this.buckets.add(new ArrayList<>());
+        }
+        this.executor = executor;
+        this.startNanos = System.nanoTime();
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Run the task on the executor once delayMillis have passed
+     */
+    public void schedule(Runnable task, long delayMillis) {
+        long elapsed = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        // Round up, so a task never runs early
+        added.add(new Timeout(task, (elapsed + tickNanos - 1) / tickNanos));
+        size.incrementAndGet();
+    }
+
+    /**
+     * Tasks waiting to run
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Stop the wheel; tasks still waiting are dropped
+     */
+    public void stop() {
+        thread.interrupt();
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            long sleepNanos = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            tick++;
+            transferAdded();
+            expire(buckets.get((int) (tick & mask)));
+        }
+    }
+
+    private void transferAdded() {
+        for (Timeout timeout = added.poll(); timeout != null; timeout = added.poll()) {
+            // Overdue tasks go in the current bucket and run this tick
+            long due = Math.max(timeout.deadlineTick, tick);
+            timeout.remainingRounds = (due - tick) / buckets.size();
+            buckets.get((int) (due & mask)).add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> bucket) {
+        List<Timeout> remaining = new ArrayList<>();
+        for (Timeout timeout : bucket) {
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                remaining.add(timeout);
+                continue;
+            }
+            size.decrementAndGet();
+            try {
+                executor.execute(timeout.task);
+            } catch (RuntimeException e) {
+                // A rejected task is dropped, like one still waiting at stop
+            }
+        }
+        bucket.clear();
+        bucket.addAll(remaining);
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.passkit.service;
+
+/**
+ * Token bucket rate limiter. Permits refill continuously at the given rate
+ * up to one second's worth, so short bursts are allowed but the long-run
+ * rate is bounded.
+ */
+public final class TokenBucket {
+
+    private final double permitsPerSecond;
+    private final double capacity;
+
+    private double available;
+    private long refilledAt;
+
+    public TokenBucket(double permitsPerSecond) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = Math.max(1.0, permitsPerSecond);
+        this.available = capacity;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Take one permit, sleeping until it is available
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            available -= 1.0;
+            // A negative balance is a debt the caller waits out, later callers queue behind it
+            waitNanos = available >= 0 ? 0 : (long) (-available / permitsPerSecond * 1_000_000_000L);
+        }
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1_000_000L, (int) (waitNanos % 1_000_000L));
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        available = Math.min(capacity, available + (now - refilledAt) / 1_000_000_000.0 * permitsPerSecond);
+        refilledAt = now;
+    }
+}
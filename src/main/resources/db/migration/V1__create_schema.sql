@@ -0,0 +1,58 @@
+-- Initial schema, matching the JPA entities; later changes are separate migrations
+
+CREATE TABLE pass_metadata (
+    serial_number VARCHAR(100) NOT NULL PRIMARY KEY,
+    pass_type_id VARCHAR(255) NOT NULL,
+    status VARCHAR(255) NOT NULL CHECK (status IN ('ACTIVE', 'EXPIRED', 'REVOKED')),
+    pass_style VARCHAR(20) CHECK (pass_style IN ('BOARDING_PASS', 'COUPON', 'EVENT_TICKET', 'STORE_CARD', 'GENERIC')),
+    version INTEGER NOT NULL,
+    update_tag BIGINT,
+    created_at TIMESTAMP(6) NOT NULL,
+    updated_at TIMESTAMP(6) NOT NULL,
+    expires_at TIMESTAMP(6),
+    revoked_at TIMESTAMP(6),
+    pass_data TEXT
+);
+
+CREATE TABLE device_registrations (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    device_id VARCHAR(100) NOT NULL,
+    pass_type_id VARCHAR(255) NOT NULL,
+    serial_number VARCHAR(100) NOT NULL,
+    push_token VARCHAR(255),
+    registered_at TIMESTAMP(6) NOT NULL,
+    updated_at TIMESTAMP(6),
+    CONSTRAINT uk_device_registrations_device_pass UNIQUE (device_id, pass_type_id, serial_number)
+);
+
+CREATE TABLE sequence_counters (
+    name VARCHAR(100) NOT NULL PRIMARY KEY,
+    next_value BIGINT NOT NULL
+);
+
+CREATE TABLE device_log_entries (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    message VARCHAR(1000) NOT NULL,
+    occurrences INTEGER NOT NULL,
+    first_seen TIMESTAMP(6) NOT NULL,
+    last_seen TIMESTAMP(6) NOT NULL
+);
+
+CREATE INDEX idx_device_log_entries_last_seen ON device_log_entries (last_seen);
+
+CREATE TABLE push_outbox (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    pass_type_id VARCHAR(255) NOT NULL,
+    serial_number VARCHAR(255) NOT NULL,
+    created_at TIMESTAMP(6) NOT NULL,
+    available_at TIMESTAMP(6) NOT NULL,
+    deadline_at TIMESTAMP(6) NOT NULL,
+    attempts INTEGER NOT NULL,
+    claimed_by VARCHAR(100),
+    claimed_until TIMESTAMP(6),
+    dispatched_at TIMESTAMP(6)
+);
+
+CREATE INDEX idx_push_outbox_due ON push_outbox (dispatched_at, available_at);
+CREATE INDEX idx_push_outbox_pass ON push_outbox (pass_type_id, serial_number);
+CREATE INDEX idx_device_registrations_push_token ON device_registrations (push_token);
@@ -0,0 +1,9 @@
+-- Devices to notify for a pass; (device_id, pass_type_id) lookups use the unique key
+CREATE INDEX idx_device_registrations_pass ON device_registrations (pass_type_id, serial_number);
+
+-- Change feed: passes updated after a device's last sync
+CREATE INDEX idx_pass_metadata_update_tag ON pass_metadata (update_tag);
+CREATE INDEX idx_pass_metadata_updated_at ON pass_metadata (updated_at);
+
+-- Expiry sweeps over active passes
+CREATE INDEX idx_pass_metadata_status_expires_at ON pass_metadata (status, expires_at);
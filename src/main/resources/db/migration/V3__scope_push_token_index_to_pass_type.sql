@@ -0,0 +1,4 @@
+-- Dead-token deletes match (push_token, pass_type_id) for 410 Unregistered,
+-- and push_token alone for BadDeviceToken, which the leading column still serves
+DROP INDEX idx_device_registrations_push_token;
+CREATE INDEX idx_device_registrations_push_token_pass ON device_registrations (push_token, pass_type_id);
@@ -0,0 +1,6 @@
+-- Fan-out pages of a pass type's registrations: (pass_type_id, id) is read
+-- in index order; with serial numbers, each one is entered at the last ID
+-- seen, so a page only reads the rows after it
+DROP INDEX idx_device_registrations_pass;
+CREATE INDEX idx_device_registrations_pass ON device_registrations (pass_type_id, serial_number, id);
+CREATE INDEX idx_device_registrations_pass_type ON device_registrations (pass_type_id, id);
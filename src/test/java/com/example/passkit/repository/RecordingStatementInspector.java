@@ -0,0 +1,26 @@
+package com.example.passkit.repository;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Keeps the last SQL statement Hibernate prepared, so tests can look at the
+ * plan of the query a repository method actually runs
+ */
+public class RecordingStatementInspector implements StatementInspector {
+
+    private static volatile String lastSql;
+
+    @Override
+    public String inspect(String sql) {
+        lastSql = sql;
+        return sql;
+    }
+
+    static String lastSql() {
+        return lastSql;
+    }
+
+    static void reset() {
+        lastSql = null;
+    }
+}
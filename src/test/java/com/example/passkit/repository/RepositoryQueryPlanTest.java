@@ -0,0 +1,166 @@
+package com.example.passkit.repository;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Plans of the hot repository finders against tables seeded with a million
+ * rows each, on the schema built by the Flyway migrations. Fails when a
+ * finder or bulk delete stops using its index and falls back to a full
+ * table scan.
+ */
+@DataJpaTest
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestPropertySource(properties = {
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+                + "com.example.passkit.repository.RecordingStatementInspector"
+})
+class RepositoryQueryPlanTest {
+
+    private static final int ROWS = 1_000_000;
+    private static final int SEED_CHUNK = 100_000;
+    private static final String PASS_TYPE = "pass.type.0";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DeviceRegistrationRepository deviceRegistrationRepository;
+
+    @Autowired
+    private PassMetadataRepository passMetadataRepository;
+
+    @BeforeAll
+    void seed() {
+        // Two pass types, 50,000 passes each with 10 devices, 200,000 devices with 5 passes each
+        insertRows("INSERT INTO device_registrations "
+                + "(device_id, pass_type_id, serial_number, push_token, registered_at) "
+                + "SELECT 'device-' || (X / 5), 'pass.type.' || MOD(X, 2), 'S' || MOD(X, 50000), "
+                + "'token-' || (X / 5), CURRENT_TIMESTAMP FROM SYSTEM_RANGE(?, ?)");
+        insertRows("INSERT INTO pass_metadata "
+                + "(serial_number, pass_type_id, status, version, update_tag, created_at, updated_at, expires_at) "
+                + "SELECT 'S' || X, 'pass.type.' || MOD(X, 2), "
+                + "CASE WHEN MOD(X, 10) = 0 THEN 'EXPIRED' ELSE 'ACTIVE' END, "
+                + "1, X, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP FROM SYSTEM_RANGE(?, ?)");
+        jdbcTemplate.execute("ANALYZE");
+    }
+
+    @Test
+    void findSerialNumbersUsesUniqueKey() {
+        RecordingStatementInspector.reset();
+        assertThat(deviceRegistrationRepository.findSerialNumbers("device-42", PASS_TYPE)).isNotEmpty();
+
+        String plan = plan("device-42", PASS_TYPE);
+        assertThat(plan).doesNotContain("tableScan");
+        assertThat(plan).containsIgnoringCase("uk_device_registrations_device_pass");
+    }
+
+    @Test
+    void findUpdatedSerialsUsesUniqueKeyAndPrimaryKey() {
+        RecordingStatementInspector.reset();
+        assertThat(deviceRegistrationRepository.findUpdatedSerials("device-42", PASS_TYPE, 0)).isNotEmpty();
+
+        String plan = plan("device-42", PASS_TYPE, 0L);
+        assertThat(plan).doesNotContain("tableScan");
+        assertThat(plan).containsIgnoringCase("uk_device_registrations_device_pass");
+        assertThat(plan).contains("PRIMARY_KEY");
+    }
+
+    @Test
+    void findPushTokenPageUsesPassIndex() {
+        RecordingStatementInspector.reset();
+        assertThat(deviceRegistrationRepository.findPushTokenPage(PASS_TYPE, List.of("S42", "S44"), 0,
+                PageRequest.of(0, 100))).hasSize(40);
+
+        String plan = plan(PASS_TYPE, "S42", "S44", 0L, 0, 100);
+        assertThat(plan).doesNotContain("tableScan");
+        // Each serial number's rows are entered at afterId, not read from the start
+        assertThat(plan).containsIgnoringCase("idx_device_registrations_pass: id > ?4");
+    }
+
+    @Test
+    void findPushTokenPageForPassTypeReadsInIndexOrder() {
+        RecordingStatementInspector.reset();
+        assertThat(deviceRegistrationRepository.findPushTokenPageForPassType(PASS_TYPE, 0,
+                PageRequest.of(0, 100))).hasSize(100);
+
+        String plan = plan(PASS_TYPE, 0L, 0, 100);
+        assertThat(plan).doesNotContain("tableScan");
+        assertThat(plan).containsIgnoringCase("idx_device_registrations_pass_type");
+        assertThat(plan).contains("index sorted");
+    }
+
+    @Test
+    void findHeaderBySerialNumberUsesPrimaryKey() {
+        RecordingStatementInspector.reset();
+        assertThat(passMetadataRepository.findHeaderBySerialNumber("S42")).isPresent();
+
+        String plan = plan("S42");
+        assertThat(plan).doesNotContain("tableScan");
+        assertThat(plan).contains("PRIMARY_KEY");
+    }
+
+    @Test
+    void findHeadersBySerialNumberInUsesPrimaryKey() {
+        RecordingStatementInspector.reset();
+        assertThat(passMetadataRepository.findHeadersBySerialNumberIn(List.of("S42", "S43", "missing")))
+                .hasSize(2);
+
+        String plan = plan("S42", "S43", "missing");
+        assertThat(plan).doesNotContain("tableScan");
+        assertThat(plan).contains("PRIMARY_KEY");
+    }
+
+    @Test
+    void unregisteredTokenDeleteUsesPushTokenIndex() {
+        String plan = jdbcTemplate.queryForObject(
+                "EXPLAIN " + DeviceRegistrationBatchRepository.DELETE_UNREGISTERED_TOKEN_SQL, String.class,
+                "token-42", PASS_TYPE, new Timestamp(System.currentTimeMillis()));
+
+        assertThat(plan).doesNotContain("tableScan");
+        assertThat(plan).containsIgnoringCase("idx_device_registrations_push_token_pass");
+        assertThat(plan).containsIgnoringCase("pass_type_id = ?2");
+    }
+
+    @Test
+    void badTokenDeleteUsesPushTokenIndex() {
+        String plan = jdbcTemplate.queryForObject(
+                "EXPLAIN " + DeviceRegistrationBatchRepository.DELETE_BAD_TOKEN_SQL, String.class,
+                "token-42", new Timestamp(System.currentTimeMillis()));
+
+        assertThat(plan).doesNotContain("tableScan");
+        assertThat(plan).containsIgnoringCase("idx_device_registrations_push_token_pass");
+    }
+
+    /**
+     * Run an INSERT ... SELECT over SYSTEM_RANGE(?, ?) for rows 0 to ROWS - 1,
+     * in chunks: one H2 transaction of a million rows is several times slower
+     */
+    private void insertRows(String insertSelect) {
+        for (int from = 0; from < ROWS; from += SEED_CHUNK) {
+            jdbcTemplate.update(insertSelect, from, Math.min(from + SEED_CHUNK, ROWS) - 1);
+        }
+    }
+
+    /**
+     * EXPLAIN the statement the finder just ran, with the given parameters
+     */
+    private String plan(Object... parameters) {
+        String sql = RecordingStatementInspector.lastSql();
+        assertThat(sql).as("statement run by the finder").isNotNull();
+        assertThat(sql.chars().filter(c -> c == '?').count()).as("parameters of " + sql)
+                .isEqualTo(parameters.length);
+        return jdbcTemplate.queryForObject("EXPLAIN " + sql, String.class, parameters);
+    }
+}
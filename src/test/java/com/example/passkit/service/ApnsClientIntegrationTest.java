@@ -0,0 +1,165 @@
+package com.example.passkit.service;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@link ApnsClient} against {@link MockApnsServer}: the wire protocol, the
+ * provider token, how APNs responses are classified and how pushes are
+ * multiplexed when APNs is slow to answer.
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ApnsClientIntegrationTest {
+
+    private static final String TOPIC = "pass.com.example.test";
+
+    private final MockApnsServer server = new MockApnsServer();
+    private ApnsClient client;
+
+    @BeforeAll
+    void start() throws Exception {
+        server.start();
+        client = newClient(server, 2, 100);
+    }
+
+    @AfterAll
+    void stop() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    void sendsOverHttp2AndReusesProviderToken() throws Exception {
+        assertThat(client.sendPassUpdate("token-first", TOPIC).get(10, TimeUnit.SECONDS).isAccepted()).isTrue();
+        long before = server.getReceived();
+        int providerTokens = server.getProviderTokens().size();
+
+        List<CompletableFuture<ApnsClient.PushResult>> pushes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            pushes.add(client.sendPassUpdate("token-" + i, TOPIC));
+        }
+        for (CompletableFuture<ApnsClient.PushResult> push : pushes) {
+            ApnsClient.PushResult result = push.get(10, TimeUnit.SECONDS);
+            assertThat(result.isAccepted()).isTrue();
+            assertThat(result.getApnsId()).isNotNull();
+        }
+
+        assertThat(server.getReceived() - before).isEqualTo(50);
+        // Cleartext h2c: each connection upgrades on its first request, all are HTTP/2 streams
+        assertThat(server.getProtocols()).containsOnlyKeys("HTTP/2.0");
+        // The JWT signed for the first push is sent again, not one per request
+        assertThat(server.getProviderTokens()).hasSize(providerTokens);
+    }
+
+    @Test
+    void unregisteredTokenIsDeadForTheTopic() throws Exception {
+        ApnsClient.PushResult result = client.sendPassUpdate("unregistered-1", TOPIC).get(10, TimeUnit.SECONDS);
+
+        assertThat(result.getStatus()).isEqualTo(410);
+        assertThat(result.getReason()).isEqualTo("Unregistered");
+        assertThat(result.isUnregistered()).isTrue();
+        assertThat(result.isDeadToken()).isTrue();
+        assertThat(result.isBadDeviceToken()).isFalse();
+        assertThat(result.isRetryable()).isFalse();
+    }
+
+    @Test
+    void badDeviceTokenIsDeadForAllTopics() throws Exception {
+        ApnsClient.PushResult result = client.sendPassUpdate("bad-1", TOPIC).get(10, TimeUnit.SECONDS);
+
+        assertThat(result.getStatus()).isEqualTo(400);
+        assertThat(result.isBadDeviceToken()).isTrue();
+        assertThat(result.isDeadToken()).isTrue();
+        assertThat(result.isUnregistered()).isFalse();
+        assertThat(result.isRetryable()).isFalse();
+    }
+
+    @Test
+    void throttledAndUnavailableAreRetryable() throws Exception {
+        ApnsClient.PushResult throttled = client.sendPassUpdate("throttled-1", TOPIC).get(10, TimeUnit.SECONDS);
+        assertThat(throttled.getStatus()).isEqualTo(429);
+        assertThat(throttled.getReason()).isEqualTo("TooManyRequests");
+        assertThat(throttled.isThrottled()).isTrue();
+        assertThat(throttled.isDeadToken()).isFalse();
+        assertThat(throttled.isRetryable()).isTrue();
+
+        ApnsClient.PushResult unavailable = client.sendPassUpdate("unavailable-1", TOPIC).get(10, TimeUnit.SECONDS);
+        assertThat(unavailable.getStatus()).isEqualTo(503);
+        assertThat(unavailable.isRetryable()).isTrue();
+    }
+
+    @Test
+    void expiredProviderTokenIsSignedAgain() throws Exception {
+        client.sendPassUpdate("token-a", TOPIC).get(10, TimeUnit.SECONDS);
+        int providerTokens = server.getProviderTokens().size();
+
+        ApnsClient.PushResult expired = client.sendPassUpdate("expired-1", TOPIC).get(10, TimeUnit.SECONDS);
+        assertThat(expired.getStatus()).isEqualTo(403);
+        assertThat(expired.isRetryable()).isTrue();
+
+        assertThat(client.sendPassUpdate("token-b", TOPIC).get(10, TimeUnit.SECONDS).isAccepted()).isTrue();
+        assertThat(server.getProviderTokens()).hasSize(providerTokens + 1);
+    }
+
+    @Test
+    void concurrentPushesShareConnectionsUnderLatency() throws Exception {
+        MockApnsServer slowServer = new MockApnsServer();
+        slowServer.start();
+        try {
+            ApnsClient slowClient = newClient(slowServer, 2, 8);
+            // One push per connection first, so each has upgraded to HTTP/2 before the burst
+            for (int i = 0; i < 2; i++) {
+                slowClient.sendPassUpdate("warmup-" + i, TOPIC).get(10, TimeUnit.SECONDS);
+            }
+            slowServer.setLatency(Duration.ofMillis(200));
+
+            long start = System.nanoTime();
+            List<CompletableFuture<ApnsClient.PushResult>> pushes = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                pushes.add(slowClient.sendPassUpdate("slow-" + i, TOPIC));
+            }
+            for (CompletableFuture<ApnsClient.PushResult> push : pushes) {
+                assertThat(push.get(10, TimeUnit.SECONDS).isAccepted()).isTrue();
+            }
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            // One after another this takes 40 x 200 ms; 8 in flight need about 5 x 200 ms
+            assertThat(elapsedMillis).isLessThan(4000);
+            // The pushes overlapped, but never beyond the in-flight limit
+            assertThat(slowServer.getPeakConcurrent()).isBetween(2, 8);
+            // ... as streams of the two connections, not new connections
+            assertThat(slowServer.getConnections()).hasSize(2);
+            assertThat(slowServer.getProtocols()).containsOnlyKeys("HTTP/2.0");
+        } finally {
+            slowServer.stop();
+        }
+    }
+
+    private static ApnsClient newClient(MockApnsServer server, int connections, int maxInFlight) throws Exception {
+        PassJsonCodec codec = new PassJsonCodec();
+        codec.init();
+
+        ApnsClient client = new ApnsClient();
+        ReflectionTestUtils.setField(client, "enabled", true);
+        ReflectionTestUtils.setField(client, "apnsUrl", server.getUrl());
+        ReflectionTestUtils.setField(client, "keyId", "KEY123");
+        ReflectionTestUtils.setField(client, "teamId", "TEAM123");
+        ReflectionTestUtils.setField(client, "connections", connections);
+        ReflectionTestUtils.setField(client, "maxInFlight", maxInFlight);
+        ReflectionTestUtils.setField(client, "requestTimeoutMillis", 5000L);
+        ReflectionTestUtils.setField(client, "tokenRefreshMinutes", 50L);
+        ReflectionTestUtils.setField(client, "passJsonCodec", codec);
+        client.init();
+        return client;
+    }
+}
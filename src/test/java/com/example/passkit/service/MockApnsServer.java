@@ -0,0 +1,190 @@
+package com.example.passkit.service;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.coyote.http2.Http2Protocol;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for APNs, for testing {@link ApnsClient}.
+ *
+ * Answers POST /3/device/{token} like APNs does, picking the response from
+ * the token: tokens starting with "bad" get 400 BadDeviceToken,
+ * "unregistered" 410 Unregistered, "throttled" 429 TooManyRequests,
+ * "unavailable" 503 ServiceUnavailable and "expired" 403
+ * ExpiredProviderToken; any other token is accepted. Every response can
+ * be held back by a configurable latency.
+ * It runs its own Tomcat with cleartext HTTP/2 (h2c), so the client
+ * multiplexes streams over its connections as it does against APNs, and
+ * records the protocol, connection and provider token of every request and
+ * how many were being answered at once.
+ */
+public class MockApnsServer {
+
+    private Tomcat tomcat;
+    private Connector connector;
+
+    private final AtomicLong received = new AtomicLong();
+    private final Map<String, AtomicLong> protocols = new ConcurrentHashMap<>();
+    private final Set<String> providerTokens = ConcurrentHashMap.newKeySet();
+    private final Set<String> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger peakConcurrent = new AtomicInteger();
+
+    private volatile Duration latency = Duration.ZERO;
+
+    /**
+     * Start listening on a free port of localhost
+     */
+    public void start() throws IOException, LifecycleException {
+        connector = new Connector();
+        connector.setPort(0);
+        connector.setProperty("address", "localhost");
+        connector.addUpgradeProtocol(new Http2Protocol());
+
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(Files.createTempDirectory("mock-apns").toString());
+        tomcat.getService().addConnector(connector);
+        tomcat.setConnector(connector);
+
+        Context context = tomcat.addContext("", null);
+        Tomcat.addServlet(context, "apns", new ApnsServlet());
+        context.addServletMappingDecoded("/3/device/*", "apns");
+        tomcat.start();
+    }
+
+    public void stop() throws LifecycleException {
+        tomcat.stop();
+        tomcat.destroy();
+    }
+
+    /**
+     * Base URL to configure as passkit.apns.url
+     */
+    public String getUrl() {
+        return "http://localhost:" + connector.getLocalPort();
+    }
+
+    /**
+     * Delay every response by this much, like a distant APNs would
+     */
+    public void setLatency(Duration latency) {
+        this.latency = latency;
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    /**
+     * Requests received per protocol, e.g. HTTP/2.0
+     */
+    public Map<String, AtomicLong> getProtocols() {
+        return protocols;
+    }
+
+    /**
+     * Distinct bearer tokens the requests were authorized with
+     */
+    public Set<String> getProviderTokens() {
+        return providerTokens;
+    }
+
+    /**
+     * Distinct client connections (address and port) requests came in on
+     */
+    public Set<String> getConnections() {
+        return connections;
+    }
+
+    /**
+     * Most requests being answered at the same time so far
+     */
+    public int getPeakConcurrent() {
+        return peakConcurrent.get();
+    }
+
+    private final class ApnsServlet extends HttpServlet {
+
+        @Override
+        protected void service(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            peakConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            try {
+                answer(request, response);
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        }
+
+        private void answer(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            received.incrementAndGet();
+            protocols.computeIfAbsent(request.getProtocol(), p -> new AtomicLong()).incrementAndGet();
+            connections.add(request.getRemoteAddr() + ":" + request.getRemotePort());
+            request.getInputStream().readAllBytes();
+
+            Duration delay = latency;
+            if (!delay.isZero()) {
+                try {
+                    Thread.sleep(delay.toMillis());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            String token = request.getPathInfo() != null ? request.getPathInfo().substring(1) : "";
+            String authorization = request.getHeader("authorization");
+            if (authorization != null && authorization.startsWith("bearer ")) {
+                providerTokens.add(authorization.substring("bearer ".length()));
+            }
+
+            if (!"POST".equals(request.getMethod())) {
+                respond(response, 405, "MethodNotAllowed");
+            } else if (authorization == null || !authorization.startsWith("bearer ")) {
+                respond(response, 403, "MissingProviderToken");
+            } else if (request.getHeader("apns-topic") == null) {
+                respond(response, 400, "MissingTopic");
+            } else if (token.startsWith("bad")) {
+                respond(response, 400, "BadDeviceToken");
+            } else if (token.startsWith("unregistered")) {
+                respond(response, 410, "Unregistered");
+            } else if (token.startsWith("throttled")) {
+                respond(response, 429, "TooManyRequests");
+            } else if (token.startsWith("unavailable")) {
+                respond(response, 503, "ServiceUnavailable");
+            } else if (token.startsWith("expired")) {
+                respond(response, 403, "ExpiredProviderToken");
+            } else {
+                respond(response, 200, null);
+            }
+        }
+
+        private void respond(HttpServletResponse response, int status, String reason) throws IOException {
+            response.setStatus(status);
+            response.setHeader("apns-id", UUID.randomUUID().toString());
+            if (reason != null) {
+                String json = status == 410
+                        ? "{\"reason\":\"" + reason + "\",\"timestamp\":" + System.currentTimeMillis() + "}"
+                        : "{\"reason\":\"" + reason + "\"}";
+                byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+                response.setContentType("application/json");
+                response.setContentLength(bytes.length);
+                response.getOutputStream().write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.passkit.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@link PkpassWriter} output read back with java.util.zip, through the
+ * central directory and through the local headers.
+ */
+class PkpassWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final PkpassWriter writer = new PkpassWriter();
+    private PassAssetBundle assets;
+
+    @BeforeEach
+    void loadAssets() {
+        PassAssetService passAssetService = new PassAssetService();
+        ReflectionTestUtils.setField(passAssetService, "assetsPath", "passkit");
+        passAssetService.init();
+        assets = passAssetService.getBundle();
+        assertThat(assets.getAssets()).hasSize(3);
+    }
+
+    @Test
+    void archiveReadsBackWithMatchingEntries() throws Exception {
+        // Larger than the deflate scratch buffer, so it has to grow
+        byte[] passJson = passJson("PK0000000001", 20000);
+        byte[] manifest = "{\"icon.png\":\"0a1b\",\"pass.json\":\"2c3d\"}".getBytes(StandardCharsets.UTF_8);
+        byte[] signature = randomBytes(3000, 1);
+
+        PkpassArchive archive = writer.write(passJson, manifest, signature, assets);
+
+        assertValidArchive(archive, expectedEntries(passJson, manifest, signature));
+    }
+
+    @Test
+    void passesFromTheSameBundleAreBothValid() throws Exception {
+        byte[] firstJson = passJson("PK0000000001", 500);
+        byte[] firstManifest = "{\"pass.json\":\"1111\"}".getBytes(StandardCharsets.UTF_8);
+        byte[] firstSignature = randomBytes(2000, 2);
+        byte[] secondJson = passJson("PK0000000002", 900);
+        byte[] secondManifest = "{\"pass.json\":\"2222\"}".getBytes(StandardCharsets.UTF_8);
+        byte[] secondSignature = randomBytes(2100, 3);
+
+        PkpassArchive first = writer.write(firstJson, firstManifest, firstSignature, assets);
+        PkpassArchive second = writer.write(secondJson, secondManifest, secondSignature, assets);
+
+        // The second pass reuses the icon segment and the scratch buffers of the first
+        assertValidArchive(first, expectedEntries(firstJson, firstManifest, firstSignature));
+        assertValidArchive(second, expectedEntries(secondJson, secondManifest, secondSignature));
+    }
+
+    private Map<String, byte[]> expectedEntries(byte[] passJson, byte[] manifest, byte[] signature) {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (PassAssetBundle.Asset asset : assets.getAssets()) {
+            entries.put(asset.getName(), asset.getData());
+        }
+        entries.put("pass.json", passJson);
+        entries.put("manifest.json", manifest);
+        entries.put("signature", signature);
+        return entries;
+    }
+
+    private void assertValidArchive(PkpassArchive archive, Map<String, byte[]> expected) throws Exception {
+        byte[] bytes = archive.toByteArray();
+        assertThat(bytes).hasSize(archive.getLength());
+        Path file = Files.createTempFile(tempDir, "pass", ".pkpass");
+        Files.write(file, bytes);
+
+        // Central directory
+        List<String> names = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                names.add(entry.getName());
+                byte[] data;
+                try (InputStream in = zip.getInputStream(entry)) {
+                    data = in.readAllBytes();
+                }
+                assertThat(data).as(entry.getName()).isEqualTo(expected.get(entry.getName()));
+                assertThat(entry.getSize()).as(entry.getName()).isEqualTo(data.length);
+                assertThat(entry.getCrc()).as(entry.getName()).isEqualTo(crc32(data));
+            }
+        }
+        assertThat(names).containsExactlyElementsOf(expected.keySet());
+
+        // Local headers; ZipInputStream also checks each entry's CRC and sizes as it reads
+        names.clear();
+        try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(file))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                names.add(entry.getName());
+                assertThat(zip.readAllBytes()).as(entry.getName()).isEqualTo(expected.get(entry.getName()));
+            }
+        }
+        assertThat(names).containsExactlyElementsOf(expected.keySet());
+    }
+
+    private static byte[] passJson(String serialNumber, int fields) {
+        StringBuilder json = new StringBuilder("{\"formatVersion\":1,\"serialNumber\":\"")
+                .append(serialNumber).append("\",\"generic\":{\"primaryFields\":[");
+        Random random = new Random(serialNumber.hashCode());
+        for (int i = 0; i < fields; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"key\":\"f").append(i)
+                    .append("\",\"value\":\"").append(Long.toHexString(random.nextLong())).append("\"}");
+        }
+        return json.append("]}}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static long crc32(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+}